@@ -0,0 +1,98 @@
+package labs.pm.bench;
+
+import labs.pm.data.Product;
+import labs.pm.data.ProductManager;
+import labs.pm.data.ProductManagerException;
+import labs.pm.data.ProductQuery;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code CatalogBenchmark} measures the read paths of a loaded catalog: lookups, discounts, listings, searches
+ * and reports.
+ * @author zackwilcox
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogBenchmark {
+    private static final Comparator<Product> BY_PRICE = Comparator.comparing(Product::getPrice);
+
+    @Param({"1000", "100000"})
+    private int products;
+
+    @Param({"10"})
+    private int reviews;
+
+    private Path work;
+    private ProductManager pm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Catalogs.workFolder();
+        pm = Catalogs.builder(Catalogs.fixture(products, reviews), work).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pm.close();
+        Catalogs.delete(work);
+    }
+
+    private int randomId() {
+        return CatalogGenerator.FIRST_ID + ThreadLocalRandom.current().nextInt(products);
+    }
+
+    @Benchmark
+    public Product findProduct() throws ProductManagerException {
+        return pm.findProduct(randomId());
+    }
+
+    @Benchmark
+    public Map<String, String> getDiscounts() {
+        return pm.getDiscounts("en-GB");
+    }
+
+    /**
+     * The whole listing, filtered and sorted through the {@code Predicate}/{@code Comparator} API.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void printProducts() throws IOException {
+        pm.writeProducts(product -> product.getPrice().signum() > 0, BY_PRICE, "en-GB", 0, Integer.MAX_VALUE,
+                Writer.nullWriter());
+    }
+
+    /**
+     * First page of the cheapest products, answered from the price index.
+     */
+    @Benchmark
+    public List<Product> cheapestPage() {
+        return pm.findProducts(ProductQuery.all().orderBy(ProductQuery.BY_PRICE).page(0, 20));
+    }
+
+    /**
+     * First page of a prefix search on a name shared by a sixth of the drinks, answered from the name index.
+     */
+    @Benchmark
+    public List<Product> searchProducts() {
+        return pm.searchProducts("hot ch", 20);
+    }
+
+    @Benchmark
+    public void writeProductReport() throws ProductManagerException, IOException {
+        pm.writeProductReport(randomId(), "en-GB", Writer.nullWriter());
+    }
+}
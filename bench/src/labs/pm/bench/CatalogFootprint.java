@@ -0,0 +1,57 @@
+package labs.pm.bench;
+
+import labs.pm.data.CompactCatalog;
+import labs.pm.data.ProductManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * {@code CatalogFootprint} measures the heap taken by the same generated catalog loaded into a {@link ProductManager},
+ * as {@code Product} and {@code Review} instances, and copied into a {@link CompactCatalog}.
+ * The object side includes the catalog's indexes, as it would be held when running.
+ * <p>
+ * Run with {@code java labs.pm.bench.CatalogFootprint [products] [reviews per product]},
+ * ideally with a fixed heap ({@code -Xms} equal to {@code -Xmx}) so collections settle the numbers.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class CatalogFootprint {
+
+    private CatalogFootprint() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int products = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int reviews = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Path data = Catalogs.fixture(products, reviews);
+        Path work = Catalogs.workFolder();
+        try {
+            long before = usedHeap();
+            try (ProductManager pm = Catalogs.builder(data, work).build()) {
+                long objects = usedHeap() - before;
+
+                before = usedHeap();
+                CompactCatalog catalog = pm.toCompactCatalog();
+                long columns = usedHeap() - before;
+
+                long total = Math.max(1L, (long) products * reviews);
+                System.out.printf("%,d products, %,d reviews%n", catalog.size(), catalog.reviewCount());
+                System.out.printf("objects: %,d bytes (%.1f per review)%n", objects, (double) objects / total);
+                System.out.printf("columns: %,d bytes (%.1f per review), columns and arena alone %,d bytes%n",
+                        columns, (double) columns / total, catalog.getFootprint());
+                System.out.printf("ratio:   %.2f%n", (double) objects / Math.max(1, columns));
+            }
+        } finally {
+            Catalogs.delete(work);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
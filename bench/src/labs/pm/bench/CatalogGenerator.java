@@ -0,0 +1,134 @@
+package labs.pm.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.ResourceBundle;
+
+/**
+ * {@code CatalogGenerator} writes a synthetic catalog, one {@code product{id}.csv} and one {@code reviews{id}.csv}
+ * per product, in the file names and record formats configured in {@code labs.pm.data.config}.
+ * <p>
+ * The output depends only on the arguments, the same seed always writes the same files, so benchmark runs
+ * on different machines read identical data. Run as
+ * {@code java labs.pm.bench.CatalogGenerator <folder> <products> <reviews per product> [seed]}.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class CatalogGenerator {
+    public static final int FIRST_ID = 101;
+    private static final ResourceBundle config = ResourceBundle.getBundle("labs.pm.data.config");
+    private static final String[] DRINKS = {"Tea", "Coffee", "Hot Chocolate", "Lemonade", "Juice", "Smoothie"};
+    private static final String[] FOOD = {"Cake", "Cookie", "Muffin", "Bagel", "Croissant", "Sandwich"};
+    private static final String[] WORDS = {"great", "fine", "weak", "sweet", "fresh", "stale", "hot", "cold",
+            "value", "again", "would", "buy", "not", "really", "lovely", "tea", "with", "lemon"};
+    private static final LocalDate EPOCH = LocalDate.of(2020, 1, 1);
+
+    private final long seed;
+
+    public CatalogGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: CatalogGenerator <folder> <products> <reviews per product> [seed]");
+            System.exit(1);
+        }
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        Path folder = new CatalogGenerator(seed).generate(Path.of(args[0]), Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]));
+        System.out.println("Generated catalog in " + folder);
+    }
+
+    /**
+     * Writes the catalog into the folder, ids start at {@link #FIRST_ID}.
+     * A folder that already holds a complete catalog for the same arguments is left as it is.
+     * @return the folder
+     */
+    public Path generate(Path folder, int products, int reviewsPerProduct) throws IOException {
+        Path marker = folder.resolve(".generated");
+        String signature = products + " " + reviewsPerProduct + " " + seed;
+        if (Files.exists(marker) && Files.readString(marker).equals(signature)) {
+            return folder;
+        }
+        Files.createDirectories(folder);
+        Random random = new Random(seed);
+        for (int id = FIRST_ID; id < FIRST_ID + products; id++) {
+            writeProduct(folder, id, random);
+            writeReviews(folder, id, reviewsPerProduct, random);
+        }
+        Files.writeString(marker, signature);
+        return folder;
+    }
+
+    /**
+     * @return a product line in the configured product format, as {@code ProductManager.parseProduct} reads it
+     */
+    public static String productLine(int id, Random random) {
+        boolean food = random.nextBoolean();
+        String[] names = food ? FOOD : DRINKS;
+        String name = names[random.nextInt(names.length)];
+        BigDecimal price = BigDecimal.valueOf(99 + random.nextInt(900), 2);
+        int rating = random.nextInt(6);
+        String bestBefore = EPOCH.plusDays(random.nextInt(3650)).toString();
+        return format(config.getString("product.data.format"),
+                food ? "F" : "D", String.valueOf(id), name, price.toPlainString(), String.valueOf(rating), bestBefore);
+    }
+
+    /**
+     * @return a review line in the configured review format, as {@code ProductManager.parseReview} reads it
+     */
+    public static String reviewLine(Random random) {
+        StringBuilder comments = new StringBuilder();
+        int words = 3 + random.nextInt(12);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                comments.append(random.nextInt(8) == 0 ? ", " : " ");
+            }
+            comments.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return format(config.getString("review.data.format"), String.valueOf(1 + random.nextInt(5)), comments.toString());
+    }
+
+    private static void writeProduct(Path folder, int id, Random random) throws IOException {
+        Path file = folder.resolve(format(config.getString("product.data.file"), String.valueOf(id)));
+        Files.writeString(file, productLine(id, random), StandardCharsets.UTF_8);
+    }
+
+    private static void writeReviews(Path folder, int id, int reviews, Random random) throws IOException {
+        Path file = folder.resolve(format(config.getString("reviews.data.file"), String.valueOf(id)));
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int r = 0; r < reviews; r++) {
+                out.write(reviewLine(random));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Replaces each {@code {n}} with the n-th value. Unlike {@link java.text.MessageFormat} it never groups digits
+     * or treats quotes specially, so ids and prices come out exactly as the parsers expect them.
+     */
+    private static String format(String pattern, String... values) {
+        StringBuilder line = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            int close = (c == '{') ? pattern.indexOf('}', i) : -1;
+            if (close > 0) {
+                line.append(values[Integer.parseInt(pattern.substring(i + 1, close))]);
+                i = close + 1;
+            } else {
+                line.append(c);
+                i++;
+            }
+        }
+        return line.toString();
+    }
+}
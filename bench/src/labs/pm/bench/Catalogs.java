@@ -0,0 +1,64 @@
+package labs.pm.bench;
+
+import labs.pm.data.ProductManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * {@code Catalogs} prepares generated fixtures and isolated catalogs for the benchmarks.
+ * Fixtures are kept under {@code bench.data} (default {@code java.io.tmpdir/pm-bench}) and reused between runs,
+ * everything a catalog writes, its journal, snapshots and reports, goes to a fresh folder removed on close.
+ * <p>
+ * The benchmarks are run with the JMH launcher, e.g. {@code java -cp <classpath> org.openjdk.jmh.Main CatalogBenchmark},
+ * or from the IDE through the {@code bench} module.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class Catalogs {
+    static final long SEED = 42;
+    private static final Path ROOT = Path.of(System.getProperty("bench.data",
+            Path.of(System.getProperty("java.io.tmpdir"), "pm-bench").toString()));
+
+    private Catalogs() {
+    }
+
+    /**
+     * @return the data folder of a generated catalog of this size
+     */
+    static Path fixture(int products, int reviewsPerProduct) throws IOException {
+        Path folder = ROOT.resolve("catalog-" + products + "-" + reviewsPerProduct + "-" + SEED);
+        return new CatalogGenerator(SEED).generate(folder, products, reviewsPerProduct);
+    }
+
+    /**
+     * @return a builder reading the fixture and writing into the work folder
+     */
+    static ProductManager.Builder builder(Path data, Path work) {
+        return ProductManager.builder()
+                .dataFolder(data)
+                .reportsFolder(work.resolve("reports"))
+                .tempFolder(work.resolve("temp"))
+                .journalFolder(work.resolve("journal"))
+                .loadSnapshot(false);
+    }
+
+    static Path workFolder() throws IOException {
+        Files.createDirectories(ROOT);
+        return Files.createTempDirectory(ROOT, "work-");
+    }
+
+    static void delete(Path folder) throws IOException {
+        if (Files.notExists(folder)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(folder)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
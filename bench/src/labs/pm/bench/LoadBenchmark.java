@@ -0,0 +1,54 @@
+package labs.pm.bench;
+
+import labs.pm.data.LoadReport;
+import labs.pm.data.ProductManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code LoadBenchmark} measures loading a whole catalog from its product and review files at several sizes.
+ * Each invocation builds a fresh catalog, which is where {@code loadAllData} runs, and closes it again.
+ * @author zackwilcox
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+    @Param({"1000", "10000", "100000"})
+    private int products;
+
+    @Param({"10"})
+    private int reviews;
+
+    private Path data;
+    private Path work;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = Catalogs.fixture(products, reviews);
+    }
+
+    @Setup(Level.Invocation)
+    public void createWorkFolder() throws IOException {
+        work = Catalogs.workFolder();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteWorkFolder() throws IOException {
+        Catalogs.delete(work);
+    }
+
+    @Benchmark
+    public LoadReport loadAllData() {
+        try (ProductManager pm = Catalogs.builder(data, work).build()) {
+            return pm.getLoadReport();
+        }
+    }
+}
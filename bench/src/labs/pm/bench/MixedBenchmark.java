@@ -0,0 +1,90 @@
+package labs.pm.bench;
+
+import labs.pm.data.Product;
+import labs.pm.data.ProductManager;
+import labs.pm.data.ProductManagerException;
+import labs.pm.data.Rating;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code MixedBenchmark} runs readers and reviewers against one catalog at the same time,
+ * a read heavy mix of three readers per writer and a write heavy mix of three writers per reader.
+ * @author zackwilcox
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixedBenchmark {
+    @Param({"10000"})
+    private int products;
+
+    @Param({"10"})
+    private int reviews;
+
+    private Path work;
+    private ProductManager pm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Catalogs.workFolder();
+        pm = Catalogs.builder(Catalogs.fixture(products, reviews), work).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pm.close();
+        Catalogs.delete(work);
+    }
+
+    private int randomId() {
+        return CatalogGenerator.FIRST_ID + ThreadLocalRandom.current().nextInt(products);
+    }
+
+    private Product read() throws ProductManagerException, IOException {
+        int id = randomId();
+        pm.writeProductReport(id, "en-GB", Writer.nullWriter());
+        return pm.findProduct(id);
+    }
+
+    private Product write() {
+        return pm.reviewProduct(randomId(), Rating.values()[1 + ThreadLocalRandom.current().nextInt(5)], "mixed");
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(3)
+    public Product readHeavyRead() throws ProductManagerException, IOException {
+        return read();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public Product readHeavyWrite() {
+        return write();
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(1)
+    public Product writeHeavyRead() throws ProductManagerException, IOException {
+        return read();
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(3)
+    public Product writeHeavyWrite() {
+        return write();
+    }
+}
@@ -0,0 +1,58 @@
+package labs.pm.bench;
+
+import labs.pm.data.Product;
+import labs.pm.data.ProductManager;
+import labs.pm.data.Review;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code ParseBenchmark} measures parsing single product and review lines in the configured formats.
+ * @author zackwilcox
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    private static final int LINES = 1024;
+    private final String[] productLines = new String[LINES];
+    private final String[] reviewLines = new String[LINES];
+    private Path work;
+    private ProductManager pm;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Catalogs.workFolder();
+        pm = Catalogs.builder(Catalogs.fixture(10, 1), work).build();
+        Random random = new Random(Catalogs.SEED);
+        for (int i = 0; i < LINES; i++) {
+            productLines[i] = CatalogGenerator.productLine(CatalogGenerator.FIRST_ID + i, random);
+            reviewLines[i] = CatalogGenerator.reviewLine(random);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pm.close();
+        Catalogs.delete(work);
+    }
+
+    @Benchmark
+    public Product parseProduct() {
+        return pm.parseProduct(productLines[next++ & (LINES - 1)]);
+    }
+
+    @Benchmark
+    public Review parseReview() {
+        return pm.parseReview(reviewLines[next++ & (LINES - 1)]);
+    }
+}
@@ -0,0 +1,71 @@
+package labs.pm.bench;
+
+import labs.pm.data.ImportReport;
+import labs.pm.data.Product;
+import labs.pm.data.ProductManager;
+import labs.pm.data.Rating;
+import labs.pm.data.Review;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code ReviewBenchmark} measures {@code reviewProduct} on products that already have a given number of reviews,
+ * including the journal append under the configured sync policy, against {@code importReviews} adding the same reviews
+ * in batches; both report the time per review.
+ * Reviews added during a run stay in the catalog, so the counts grow slightly over a trial.
+ * @author zackwilcox
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReviewBenchmark {
+    private static final int PRODUCTS = 16;
+    private static final int BATCH = 1000;
+
+    @Param({"0", "100", "10000"})
+    private int existingReviews;
+
+    private Path work;
+    private ProductManager pm;
+    private List<Review> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Catalogs.workFolder();
+        pm = Catalogs.builder(Catalogs.fixture(PRODUCTS, existingReviews), work).build();
+        batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(new Review(Rating.values()[1 + i % 5], "benchmark review"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pm.close();
+        Catalogs.delete(work);
+    }
+
+    @Benchmark
+    public Product reviewProduct() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return pm.reviewProduct(CatalogGenerator.FIRST_ID + random.nextInt(PRODUCTS),
+                Rating.values()[1 + random.nextInt(5)], "benchmark review");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public ImportReport importReviews() {
+        return pm.importReviews(Map.of(CatalogGenerator.FIRST_ID + ThreadLocalRandom.current().nextInt(PRODUCTS), batch));
+    }
+}
@@ -0,0 +1,53 @@
+package labs.pm.bench;
+
+import labs.pm.data.ProductManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code SnapshotBenchmark} measures writing the catalog to a binary snapshot and restoring it again.
+ * @author zackwilcox
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+    @Param({"10000", "100000"})
+    private int products;
+
+    @Param({"10"})
+    private int reviews;
+
+    private Path work;
+    private ProductManager pm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Catalogs.workFolder();
+        pm = Catalogs.builder(Catalogs.fixture(products, reviews), work).build();
+        pm.dumpData();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pm.close();
+        Catalogs.delete(work);
+    }
+
+    @Benchmark
+    public void dumpData() {
+        pm.dumpData();
+    }
+
+    @Benchmark
+    public boolean restoreData() {
+        return pm.restoreData();
+    }
+}
@@ -0,0 +1,83 @@
+package labs.pm.bench;
+
+import labs.pm.data.ProductManager;
+import labs.pm.data.Rating;
+import labs.pm.data.ThreadMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code ThreadModeBenchmark} compares platform and virtual threads for clients that block on the catalog:
+ * each invocation starts {@code clients} clients at once, each reviews a product and waits for its report file,
+ * the way {@code Shop} clients do. Clients and report writers run in the same {@link ThreadMode}; platform clients
+ * share a pool of {@code platformThreads}, virtual clients get a thread each.
+ * <p>
+ * On runtimes without virtual threads both modes run on platform threads, compare the {@code mode} rows only on Java 21
+ * or later.
+ * @author zackwilcox
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModeBenchmark {
+    @Param({"PLATFORM", "VIRTUAL"})
+    private ThreadMode mode;
+
+    @Param({"100", "1000"})
+    private int clients;
+
+    @Param({"16"})
+    private int platformThreads;
+
+    @Param({"10000"})
+    private int products;
+
+    @Param({"10"})
+    private int reviews;
+
+    private Path work;
+    private ProductManager pm;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Catalogs.workFolder();
+        pm = Catalogs.builder(Catalogs.fixture(products, reviews), work).reportThreadMode(mode).build();
+        executor = mode.newExecutor("bench-client", platformThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        pm.close();
+        Catalogs.delete(work);
+    }
+
+    @Benchmark
+    public int clients() {
+        List<CompletableFuture<Path>> done = new ArrayList<>(clients);
+        for (int c = 0; c < clients; c++) {
+            String client = "client" + c;
+            done.add(CompletableFuture.supplyAsync(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int id = CatalogGenerator.FIRST_ID + random.nextInt(products);
+                pm.reviewProduct(id, Rating.values()[1 + random.nextInt(5)], "Review from " + client);
+                return pm.submitProductReport(id, "en-GB", client).join();
+            }, executor));
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+        return done.size();
+    }
+}
@@ -0,0 +1,473 @@
+package labs.pm.app;
+
+import labs.pm.data.*;
+import labs.pm.http.JsonReader;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@code LoadDriver} puts a configurable load on a {@link ProductManager} and prints the throughput and latency
+ * it sustained, to find the point where a build saturates.
+ * <p>
+ * With a {@code rate} the load is open loop: requests arrive on a fixed schedule whether or not earlier ones finished,
+ * at most {@code clients} run at a time and the rest queue. Latency is measured from the scheduled arrival, so time
+ * spent queued behind a slow request counts, as it would for a real customer. Without a rate every client runs
+ * requests back to back, which measures the best throughput the clients can reach rather than the latency at a load.
+ * <p>
+ * Products are picked with a Zipf distribution over the catalog and operations by weight from the mix.
+ * Requests during the warm-up are run but not recorded.
+ * <p>
+ * With a {@code url} the same load goes over HTTP to a {@link labs.pm.http.CatalogServer}, e.g. one started with
+ * {@code Shop --serve} on localhost, through one keep-alive connection pool shared by all clients.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class LoadDriver {
+    private static final Logger logger = Logger.getLogger(LoadDriver.class.getName());
+    private static final String CLIENT = "load";
+    private static final int LISTING_SIZE = 20;
+    private static final int SEARCH_PREFIX = 3;
+    private static final int CATALOG_PAGE = 10_000;
+
+    enum Operation {DISCOUNTS, REVIEW, REPORT, LISTING, SEARCH}
+
+    private int clients = 16;
+    private long durationSeconds = 30;
+    private long warmupSeconds = 5;
+    private double rate;
+    private double skew = 1.0;
+    private int backlog = 10_000;
+    private ThreadMode threads = ThreadMode.PLATFORM;
+    private String url;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Map.of(
+            Operation.DISCOUNTS, 2, Operation.REVIEW, 3, Operation.REPORT, 1, Operation.LISTING, 4));
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicInteger pending = new AtomicInteger();
+    private ProductManager pm;
+    private HttpClient http;
+    private Operation[] operations;
+    private int[] ids;
+    private String[] names;
+    private Zipf popularity;
+    private String[] languageTags;
+
+    LoadDriver() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    static void usage(PrintStream out) {
+        out.println("Usage: Shop [--clients=16] [--duration=30] [--warmup=5] [--rate=<requests per second>]");
+        out.println("            [--mix=discounts:2,review:3,report:1,listing:4,search:0] [--zipf=1.0]");
+        out.println("            [--backlog=10000] [--threads=platform|virtual] [--url=http://localhost:8080]");
+        out.println("   or: Shop --serve[=8080] [--threads=virtual|platform] to serve the default catalog over HTTP.");
+        out.println("Without --rate every client sends its next request as soon as the last one returns.");
+        out.println("Without --url the load test runs against a temporary copy of the default catalog.");
+    }
+
+    /**
+     * Reads {@code --name=value} options, anything not given keeps its default.
+     * @throws IllegalArgumentException on an unknown option or a value out of range
+     */
+    LoadDriver configure(String[] args) {
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            switch (name) {
+                case "clients": clients = positive(name, Integer.parseInt(value)); break;
+                case "duration": durationSeconds = positive(name, Integer.parseInt(value)); break;
+                case "warmup": warmupSeconds = Math.max(Integer.parseInt(value), 0); break;
+                case "rate": rate = Double.parseDouble(value); break;
+                case "zipf": skew = Double.parseDouble(value); break;
+                case "backlog": backlog = Math.max(Integer.parseInt(value), 0); break;
+                case "threads": threads = ThreadMode.of(value); break;
+                case "url": url = value.endsWith("/") ? value.substring(0, value.length() - 1) : value; break;
+                case "mix": parseMix(value); break;
+                default: throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+        return this;
+    }
+
+    private void parseMix(String value) {
+        mix.clear();
+        for (String part : value.split(",")) {
+            String[] weight = part.split(":");
+            Operation operation = Operation.valueOf(weight[0].trim().toUpperCase(Locale.ROOT));
+            mix.put(operation, (weight.length > 1) ? Math.max(Integer.parseInt(weight[1].trim()), 0) : 1);
+        }
+    }
+
+    private static int positive(String name, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("--" + name + " must be at least 1");
+        }
+        return value;
+    }
+
+    /**
+     * Loads a copy of the configured catalog with reports written in the same thread mode as the clients, or connects
+     * to the catalog server at the url, runs the test and prints the summary.
+     * The copy, its reports, journal and temp files live in a temporary folder removed afterwards, so the reviews
+     * and reports of the test never reach the configured folders.
+     */
+    void run() throws InterruptedException, IOException {
+        if (url != null) {
+            http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10)).build();
+            fetchCatalog();
+            drive();
+            return;
+        }
+        Path work = Files.createTempDirectory("pm-load-");
+        try {
+            ProductManager.Builder builder = ProductManager.builder().reportThreadMode(threads);
+            Path data = copyFiles(builder.getDataFolder(), work.resolve("data"));
+            try (ProductManager catalog = builder.dataFolder(data)
+                    .reportsFolder(work.resolve("reports"))
+                    .tempFolder(work.resolve("temp"))
+                    .journalFolder(work.resolve("journal"))
+                    .loadSnapshot(false)
+                    .watchData(false)
+                    .build()) {
+                run(catalog);
+            }
+        } finally {
+            delete(work);
+        }
+    }
+
+    private static Path copyFiles(Path source, Path target) throws IOException {
+        Files.createDirectories(target);
+        try (Stream<Path> files = Files.list(source)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Files.copy(file, target.resolve(file.getFileName()));
+            }
+        }
+        return target;
+    }
+
+    private static void delete(Path folder) throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    void run(ProductManager pm) throws InterruptedException {
+        this.pm = pm;
+        List<Product> catalog = pm.findProducts(ProductQuery.all());
+        ids = catalog.stream().mapToInt(Product::getId).toArray();
+        names = catalog.stream().map(Product::getName).toArray(String[]::new);
+        drive();
+    }
+
+    private void drive() throws InterruptedException {
+        prepare();
+        ExecutorService executor = threads.newExecutor("load-client", clients);
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        try {
+            if (rate > 0) {
+                runOpenLoop(executor, start, measureFrom, end);
+            } else {
+                runClosedLoop(executor, measureFrom, end);
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        printSummary(System.out, Math.min(System.nanoTime(), end) - measureFrom);
+    }
+
+    /**
+     * Pages through the served catalog in id order for the ids and names to pick from.
+     */
+    @SuppressWarnings("unchecked")
+    private void fetchCatalog() throws IOException, InterruptedException {
+        List<Integer> found = new ArrayList<>();
+        List<String> foundNames = new ArrayList<>();
+        for (int offset = 0; ; offset += CATALOG_PAGE) {
+            HttpRequest request = get("/products?order=id&offset=" + offset + "&limit=" + CATALOG_PAGE);
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            if (response.statusCode() != 200) {
+                throw new IOException("GET /products answered " + response.statusCode() + ": " + response.body());
+            }
+            List<Object> products = (List<Object>) JsonReader.readObject(response.body()).get("products");
+            for (Object product : products) {
+                Map<String, Object> fields = (Map<String, Object>) product;
+                found.add(((BigDecimal) fields.get("id")).intValue());
+                foundNames.add((String) fields.get("name"));
+            }
+            if (products.size() < CATALOG_PAGE) {
+                break;
+            }
+        }
+        ids = found.stream().mapToInt(Integer::intValue).toArray();
+        names = foundNames.toArray(new String[0]);
+    }
+
+    private void prepare() {
+        if (ids.length == 0) {
+            throw new IllegalStateException("The catalog has no products to load test");
+        }
+        List<Operation> weighted = new ArrayList<>();
+        mix.forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weighted.add(operation);
+            }
+        });
+        if (weighted.isEmpty()) {
+            throw new IllegalArgumentException("--mix must give at least one operation a weight");
+        }
+        operations = weighted.toArray(new Operation[0]);
+        popularity = new Zipf(ids.length, skew);
+        languageTags = ProductManager.getSupportedLocales().toArray(new String[0]);
+    }
+
+    /**
+     * Schedules arrivals every {@code 1 / rate} seconds on this thread; {@code clients} permits cap concurrency,
+     * which for virtual threads is the only cap, and arrivals beyond {@code backlog} waiting requests are dropped.
+     */
+    private void runOpenLoop(ExecutorService executor, long start, long measureFrom, long end) {
+        Semaphore running = new Semaphore(clients);
+        double interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        for (long n = 0; ; n++) {
+            long scheduled = start + (long) (n * interval);
+            if (scheduled >= end) {
+                return;
+            }
+            for (long now = System.nanoTime(); now < scheduled; now = System.nanoTime()) {
+                LockSupport.parkNanos(scheduled - now);
+            }
+            if (pending.get() >= clients + backlog) {
+                if (scheduled >= measureFrom) {
+                    dropped.increment();
+                }
+                continue;
+            }
+            pending.incrementAndGet();
+            executor.execute(() -> {
+                running.acquireUninterruptibly();
+                try {
+                    request(scheduled, scheduled >= measureFrom);
+                } finally {
+                    running.release();
+                    pending.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private void runClosedLoop(ExecutorService executor, long measureFrom, long end) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int c = 0; c < clients; c++) {
+            executor.execute(() -> {
+                try {
+                    for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+                        request(now, now >= measureFrom);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    private void request(long scheduled, boolean measured) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Operation operation = operations[random.nextInt(operations.length)];
+        int product = popularity.next(random);
+        int id = ids[product];
+        String languageTag = languageTags[random.nextInt(languageTags.length)];
+        boolean failed;
+        try {
+            failed = !execute(operation, id, names[product], languageTag, random);
+        } catch (RuntimeException | IOException ex) {
+            logger.log(Level.FINE, ex, () -> operation + " of product " + id + " failed");
+            failed = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failed = true;
+        }
+        if (measured) {
+            latencies.get(operation).recordSince(scheduled);
+            if (failed) {
+                errors.get(operation).increment();
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if the catalog reported the request as failed without throwing
+     */
+    private boolean execute(Operation operation, int id, String name, String languageTag, ThreadLocalRandom random)
+            throws IOException, InterruptedException {
+        if (http != null) {
+            return send(operation, id, name, languageTag, random);
+        }
+        switch (operation) {
+            case DISCOUNTS:
+                return !pm.getDiscounts(languageTag).isEmpty();
+            case REVIEW:
+                Rating rating = Rating.values()[1 + random.nextInt(Rating.values().length - 1)];
+                return pm.reviewProduct(id, rating, "Load test review") != null;
+            case REPORT:
+                pm.submitProductReport(id, languageTag, CLIENT).join();
+                return true;
+            case LISTING:
+                ProductQuery query = ProductQuery.all().orderBy(ProductQuery.BY_RATING)
+                        .page(random.nextInt(Math.max(ids.length - LISTING_SIZE, 1)), LISTING_SIZE);
+                pm.writeProducts(query, languageTag, Writer.nullWriter());
+                return true;
+            case SEARCH:
+                // the start of the product's name, as typed into a search box
+                return !pm.searchProducts(name.substring(0, Math.min(SEARCH_PREFIX, name.length())), LISTING_SIZE)
+                        .isEmpty();
+            default:
+                throw new IllegalStateException("Unknown operation " + operation);
+        }
+    }
+
+    /**
+     * Sends the HTTP request for the operation, discarding the body as it arrives.
+     * @return {@code false} if the server did not answer with success
+     */
+    private boolean send(Operation operation, int id, String name, String languageTag, ThreadLocalRandom random)
+            throws IOException, InterruptedException {
+        HttpRequest request;
+        switch (operation) {
+            case DISCOUNTS:
+                request = get("/discounts?lang=" + languageTag);
+                break;
+            case REVIEW:
+                int rating = 1 + random.nextInt(Rating.values().length - 1);
+                request = HttpRequest.newBuilder(URI.create(url + "/products/" + id + "/reviews"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(
+                                "{\"rating\": " + rating + ", \"comments\": \"Load test review\"}"))
+                        .build();
+                break;
+            case REPORT:
+                request = get("/products/" + id + "/report?lang=" + languageTag);
+                break;
+            case LISTING:
+                request = get("/products?order=rating&limit=" + LISTING_SIZE
+                        + "&offset=" + random.nextInt(Math.max(ids.length - LISTING_SIZE, 1)));
+                break;
+            case SEARCH:
+                String prefix = name.substring(0, Math.min(SEARCH_PREFIX, name.length()));
+                request = get("/products?limit=" + LISTING_SIZE
+                        + "&q=" + URLEncoder.encode(prefix, StandardCharsets.UTF_8));
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation " + operation);
+        }
+        int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        return status >= 200 && status < 300;
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(url + path)).GET().build();
+    }
+
+    private void printSummary(PrintStream out, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        out.printf(Locale.ROOT, "%n%d products, %d clients, %s, %s threads, zipf %.2f, %ds measured after %ds warm-up%n",
+                ids.length, clients, (rate > 0) ? String.format(Locale.ROOT, "open loop at %.0f/s", rate) : "closed loop",
+                threads.effective().name().toLowerCase(Locale.ROOT), skew, durationSeconds, warmupSeconds);
+        out.printf(Locale.ROOT, "%-10s %10s %8s %10s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "requests", "errors", "req/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long requests = 0;
+        long failed = 0;
+        for (Operation operation : mix.keySet()) {
+            LatencyStats stats = latencies.get(operation).snapshot();
+            long errorCount = errors.get(operation).sum();
+            requests += stats.getCount();
+            failed += errorCount;
+            out.printf(Locale.ROOT, "%-10s %10d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    operation.name().toLowerCase(Locale.ROOT), stats.getCount(), errorCount, stats.getCount() / seconds,
+                    millis(stats.getMean()), millis(stats.getP50()), millis(stats.getP90()),
+                    millis(stats.getP99()), millis(stats.getP999()), millis(stats.getMax()));
+        }
+        out.printf(Locale.ROOT, "%-10s %10d %8d %10.1f%n", "total", requests, failed, requests / seconds);
+        if (dropped.sum() > 0) {
+            out.printf(Locale.ROOT, "%d requests dropped with %d already waiting, the target rate is past saturation%n",
+                    dropped.sum(), clients + backlog);
+        }
+        if (pm != null) {
+            out.println("Catalog side: " + pm.getMetrics().getLatencies().entrySet().stream()
+                    .filter(entry -> entry.getValue().getCount() > 0)
+                    .map(entry -> String.format(Locale.ROOT, "%s p99 %.3f ms",
+                            entry.getKey().name().toLowerCase(Locale.ROOT), millis(entry.getValue().getP99())))
+                    .collect(Collectors.joining(", ")));
+        } else {
+            out.println("Server side: " + serverMetrics());
+        }
+    }
+
+    /**
+     * @return the p99 of every operation the server has run, from its {@code /metrics}
+     */
+    @SuppressWarnings("unchecked")
+    private String serverMetrics() {
+        try {
+            HttpResponse<String> response = http.send(get("/metrics"),
+                    HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            Map<String, Map<String, BigDecimal>> operations = (Map<String, Map<String, BigDecimal>>)
+                    JsonReader.readObject(response.body()).get("operations");
+            return operations.entrySet().stream()
+                    .filter(entry -> entry.getValue().get("count").signum() > 0)
+                    .map(entry -> String.format(Locale.ROOT, "%s p99 %.3f ms", entry.getKey(),
+                            millis(entry.getValue().get("p99Nanos").longValue())))
+                    .collect(Collectors.joining(", "));
+        } catch (IOException | RuntimeException ex) {
+            return "unavailable, " + ex.getMessage();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return "unavailable";
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -1,8 +1,11 @@
 package labs.pm.app;
 
 import labs.pm.data.*;
+import labs.pm.http.CatalogServer;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.net.InetSocketAddress;
 import java.time.LocalDate;
 import java.util.Comparator;
 import java.util.List;
@@ -17,6 +20,11 @@ import java.util.stream.Stream;
 
 /**
  * {@code Shop} class represents something
+ * <p>
+ * Run without arguments it plays a few clients against the default catalog and prints their logs.
+ * Run with {@code --name=value} options it becomes a load test of the catalog, see {@link LoadDriver}.
+ * Run with {@code --serve[=port] [--threads=virtual|platform]} it serves the default catalog over HTTP until stopped,
+ * see {@link CatalogServer}; {@code --url=http://localhost:port} points a load test at it.
  * @author zackwilcox
  * @version 1.0
  */
@@ -25,9 +33,19 @@ public class Shop {
     private final static int NUM_PRODUCTS = 5;
     private final static int NUM_CLIENTS = 5;
     private final static int MAX_THREADS = 3;
+    private final static int HTTP_PORT = 8080;
+    private final static int HTTP_THREADS = 64;
     private final static Logger logger = Logger.getLogger(Shop.class.getName());
 
     public static void main(String[] args){
+        if (args.length > 0 && args[0].startsWith("--serve")) {
+            runServer(args);
+            return;
+        }
+        if (args.length > 0) {
+            runLoadTest(args);
+            return;
+        }
         AtomicInteger clientCount = new AtomicInteger(0);
         ProductManager pm = ProductManager.getInstance();
         Callable<String> client = () -> {
@@ -46,8 +64,10 @@ public class Shop {
                             .collect(Collectors.joining("\n")));
             Product product = pm.reviewProduct(productId, Rating.FOUR_STAR, "Yet another review from " + clientId);
             log.append((product != null) ? "\nProduct " + productId + " reviewed\n" : "\nProduct " + productId + " not reviewed\n");
-            pm.printProductReport(productId, languageTag, clientId);
-            log.append(clientId).append(" generated report for ").append(productId).append(" product");
+            log.append(pm.submitProductReport(productId, languageTag, clientId)
+                    .thenApply(report -> clientId + " generated report for " + productId + " product")
+                    .exceptionally(ex -> clientId + " could not generate report for " + productId + " product")
+                    .join());
             log.append("\n-\tend of log\t-\n");
             return log.toString();
         };
@@ -66,4 +86,61 @@ public class Shop {
             logger.log(Level.SEVERE, "Error invoking clients", ex);
         }
     }
+
+    private static void runServer(String[] args) {
+        int port = HTTP_PORT;
+        ThreadMode threads = ThreadMode.VIRTUAL;
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--serve=")) {
+                    port = Integer.parseInt(arg.substring("--serve=".length()));
+                } else if (arg.startsWith("--threads=")) {
+                    threads = ThreadMode.of(arg.substring("--threads=".length()));
+                } else if (!arg.equals("--serve")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: Shop --serve[=" + HTTP_PORT + "] [--threads=virtual|platform]");
+            System.exit(2);
+            return;
+        }
+        // streamed responses are written in small pieces, without this each one waits on the client's delayed ACK;
+        // the JDK reads it once, when the first server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        ProductManager pm = ProductManager.builder().reportThreadMode(threads).build();
+        try {
+            CatalogServer server = new CatalogServer(pm, new InetSocketAddress(port), threads, HTTP_THREADS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                pm.close();
+            }, "catalog-http-shutdown"));
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Could not serve the catalog on port " + port, ex);
+            pm.close();
+            System.exit(1);
+        }
+    }
+
+    private static void runLoadTest(String[] args) {
+        LoadDriver driver;
+        try {
+            driver = new LoadDriver().configure(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            LoadDriver.usage(System.err);
+            System.exit(2);
+            return;
+        }
+        try {
+            driver.run();
+        } catch (InterruptedException ex) {
+            logger.log(Level.SEVERE, "Load test interrupted", ex);
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Could not prepare or reach the catalog under test", ex);
+        }
+    }
 }
@@ -0,0 +1,35 @@
+package labs.pm.app;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * {@code Zipf} draws ranks {@code 0..n-1} where rank {@code k} is picked with a probability proportional to
+ * {@code 1 / (k + 1)^skew}, so a few products get most of the traffic as they do in a real shop.
+ * A skew of 0 draws uniformly.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class Zipf {
+    private final double[] cumulative;
+
+    Zipf(int n, double skew) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Zipf needs at least one rank");
+        }
+        cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, skew);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+    int next(Random random) {
+        int k = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min((k >= 0) ? k : -k - 1, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,156 @@
+package labs.pm.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@code CatalogLoader} reads every product file of the data folder, and the reviews file that belongs to it,
+ * in parallel on a dedicated fork-join pool.
+ * A file that cannot be read or parsed is recorded in the {@link LoadReport} and the load carries on.
+ * Every stream and reader it opens is closed before the file is done.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class CatalogLoader {
+    private static final Logger log = Logger.getLogger(CatalogLoader.class.getName());
+    private static final int PROGRESS_STEP = 1000;
+    private final Path dataFolder;
+    private final int threads;
+    private final Function<String, Product> productParser;
+    private final Function<String, Review> reviewParser;
+    private final IntFunction<String> reviewsFileName;
+    private final Function<Product, ProductStore.Entry> archived;
+
+    CatalogLoader(Path dataFolder, int threads, Function<String, Product> productParser,
+                  Function<String, Review> reviewParser, IntFunction<String> reviewsFileName) {
+        this(dataFolder, threads, productParser, reviewParser, reviewsFileName, product -> null);
+    }
+
+    /**
+     * @param threads number of loader threads, zero or less means one per available processor
+     * @param archived supplies the entry of a product whose reviews are already archived, or {@code null},
+     *                 the reviews file of such a product is not read
+     */
+    CatalogLoader(Path dataFolder, int threads, Function<String, Product> productParser,
+                  Function<String, Review> reviewParser, IntFunction<String> reviewsFileName,
+                  Function<Product, ProductStore.Entry> archived) {
+        this.dataFolder = dataFolder;
+        this.archived = archived;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.productParser = productParser;
+        this.reviewParser = reviewParser;
+        this.reviewsFileName = reviewsFileName;
+    }
+
+    LoadReport load(ProductStore store) {
+        long start = System.nanoTime();
+        AtomicInteger files = new AtomicInteger();
+        LongAdder reviews = new LongAdder();
+        Map<Path, String> errors = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (Stream<Path> list = Files.list(dataFolder)) {
+            pool.submit(() -> list.parallel()
+                    .filter(CatalogLoader::isProductFile)
+                    .forEach(file -> {
+                        loadFile(file, store, reviews, errors);
+                        int done = files.incrementAndGet();
+                        if (done % PROGRESS_STEP == 0) {
+                            log.log(Level.INFO, "Loaded {0} product files", done);
+                        }
+                    })).get();
+        } catch (IOException ex) {
+            errors.put(dataFolder, ex.toString());
+            log.log(Level.SEVERE, "Error listing data folder " + dataFolder, ex);
+        } catch (ExecutionException ex) {
+            errors.put(dataFolder, ex.getCause().toString());
+            log.log(Level.SEVERE, "Error loading data folder " + dataFolder, ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            errors.put(dataFolder, ex.toString());
+        } finally {
+            pool.shutdown();
+        }
+        return new LoadReport(files.get(), store.size(), reviews.sum(), errors,
+                Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    static boolean isProductFile(Path file) {
+        return file.getFileName().toString().startsWith("product");
+    }
+
+    private void loadFile(Path file, ProductStore store, LongAdder reviewCount, Map<Path, String> errors) {
+        Product product;
+        try {
+            product = loadProduct(file);
+        } catch (IOException | UncheckedIOException ex) {
+            errors.put(file, ex.toString());
+            log.log(Level.WARNING, "Error loading product " + file, ex);
+            return;
+        }
+        if (product == null) {
+            errors.put(file, "Unable to parse product");
+            return;
+        }
+        ProductStore.Entry entry = archived.apply(product);
+        if (entry != null) {
+            if (store.putIfAbsent(entry) != null) {
+                errors.put(file, "Duplicate product id " + product.getId());
+            } else {
+                reviewCount.add(entry.getRatings().getCount());
+            }
+            return;
+        }
+        List<Review> reviews;
+        Path reviewsFile = dataFolder.resolve(reviewsFileName.apply(product.getId()));
+        try {
+            reviews = loadReviews(reviewsFile);
+        } catch (IOException | UncheckedIOException ex) {
+            // keep the product, it is still sellable without its reviews
+            errors.put(reviewsFile, ex.toString());
+            log.log(Level.WARNING, "Error loading reviews " + reviewsFile, ex);
+            reviews = new ArrayList<>();
+        }
+        if (store.putIfAbsent(new ProductStore.Entry(product, reviews)) != null) {
+            errors.put(file, "Duplicate product id " + product.getId());
+        } else {
+            reviewCount.add(reviews.size());
+        }
+    }
+
+    Product loadProduct(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            return (line == null) ? null : productParser.apply(line);
+        }
+    }
+
+    List<Review> loadReviews(Path file) throws IOException {
+        if (Files.notExists(file)) {
+            return new ArrayList<>();
+        }
+        try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            return lines.map(reviewParser)
+                    .filter(review -> review != null)
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package labs.pm.data;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code CatalogMetrics} collects the counters and latency histograms of one catalog.
+ * Everything is preallocated, so recording costs a clock read and a few atomic increments.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class CatalogMetrics {
+    private final Map<MetricsSnapshot.Operation, LatencyHistogram> latencies = new EnumMap<>(MetricsSnapshot.Operation.class);
+    private final Map<MetricsSnapshot.Operation, LongAdder> errors = new EnumMap<>(MetricsSnapshot.Operation.class);
+    private final LockTimer locks = new LockTimer();
+
+    CatalogMetrics() {
+        for (MetricsSnapshot.Operation operation : MetricsSnapshot.Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * @return a start time to pass to {@link #record(MetricsSnapshot.Operation, long)}
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    void record(MetricsSnapshot.Operation operation, long start) {
+        latencies.get(operation).recordSince(start);
+    }
+
+    void failed(MetricsSnapshot.Operation operation) {
+        errors.get(operation).increment();
+    }
+
+    LockTimer getLocks() {
+        return locks;
+    }
+
+    MetricsSnapshot snapshot(ProductStore store, long productParseErrors, long reviewParseErrors) {
+        Map<MetricsSnapshot.Operation, LatencyStats> operations = new EnumMap<>(MetricsSnapshot.Operation.class);
+        Map<MetricsSnapshot.Operation, Long> failures = new EnumMap<>(MetricsSnapshot.Operation.class);
+        latencies.forEach((operation, histogram) -> operations.put(operation, histogram.snapshot()));
+        errors.forEach((operation, count) -> failures.put(operation, count.sum()));
+        return new MetricsSnapshot(System.currentTimeMillis(), operations, failures,
+                locks.wait.snapshot(), locks.hold.snapshot(),
+                productParseErrors, reviewParseErrors, store.size(), store.getReviewCount());
+    }
+
+    /**
+     * Times how long entry locks are waited for and held.
+     */
+    static final class LockTimer {
+        static final LockTimer NONE = new LockTimer();
+        private final LatencyHistogram wait = new LatencyHistogram();
+        private final LatencyHistogram hold = new LatencyHistogram();
+
+        void waited(long nanos) {
+            wait.record(nanos);
+        }
+
+        void held(long nanos) {
+            hold.record(nanos);
+        }
+    }
+}
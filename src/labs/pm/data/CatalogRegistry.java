@@ -0,0 +1,114 @@
+package labs.pm.data;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@code CatalogRegistry} keeps a set of named, isolated catalogs, e.g. one per store.
+ * <p>
+ * Registering a catalog only records its {@link ProductManager.Builder}; the catalog is loaded the first time it is
+ * asked for, or by {@link #startAll()}, which loads every catalog in parallel. Each catalog loads on its own,
+ * so a huge store never holds up the others: callers of a small catalog get it as soon as it is ready.
+ * Concurrent requests for a catalog that is still loading share the same load.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class CatalogRegistry implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(CatalogRegistry.class.getName());
+    private final Map<String, ProductManager.Builder> builders = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<ProductManager>> catalogs = new ConcurrentHashMap<>();
+    private final Map<Path, String> folders = new HashMap<>();
+    private final ExecutorService loader;
+
+    /**
+     * @param parallelism how many catalogs may load at the same time
+     */
+    public CatalogRegistry(int parallelism) {
+        AtomicInteger count = new AtomicInteger();
+        loader = Executors.newFixedThreadPool(parallelism, task -> {
+            Thread thread = new Thread(task, "catalog-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registers a copy of the builder under the name, the caller's builder is left as it is and may be reused.
+     * @throws IllegalArgumentException if the name is taken or the catalog shares a folder with a registered one
+     */
+    public synchronized void register(String name, ProductManager.Builder builder) {
+        if (builders.containsKey(name)) {
+            throw new IllegalArgumentException("Catalog " + name + " is already registered");
+        }
+        ProductManager.Builder copy = builder.copy().name(name);
+        List<Path> paths = copy.getFolders();
+        for (Path path : paths) {
+            String owner = folders.get(path.toAbsolutePath().normalize());
+            if (owner != null) {
+                throw new IllegalArgumentException("Catalog " + name + " shares folder " + path + " with catalog " + owner);
+            }
+        }
+        paths.forEach(path -> folders.put(path.toAbsolutePath().normalize(), name));
+        builders.put(name, copy);
+    }
+
+    public Set<String> getNames() {
+        return builders.keySet();
+    }
+
+    /**
+     * @return the catalog, loading it first if nobody has asked for it yet
+     * @throws ProductManagerException if there is no such catalog or it failed to load
+     */
+    public ProductManager get(String name) throws ProductManagerException {
+        try {
+            return load(name).join();
+        } catch (CompletionException ex) {
+            throw new ProductManagerException("Catalog " + name + " could not be loaded", ex.getCause());
+        }
+    }
+
+    /**
+     * @return the catalog once it is loaded, starting the load if nobody has asked for it yet
+     */
+    public CompletableFuture<ProductManager> load(String name) {
+        ProductManager.Builder builder = builders.get(name);
+        if (builder == null) {
+            return CompletableFuture.failedFuture(new ProductManagerException("Catalog " + name + " does not exist"));
+        }
+        return catalogs.computeIfAbsent(name, key -> CompletableFuture.supplyAsync(() -> {
+            log.log(Level.INFO, "Loading catalog {0}", key);
+            return builder.build();
+        }, loader));
+    }
+
+    /**
+     * Starts loading every registered catalog that is not loaded yet.
+     * @return completes once all of them are loaded
+     */
+    public CompletableFuture<Void> startAll() {
+        return CompletableFuture.allOf(builders.keySet().stream()
+                .map(this::load)
+                .toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Closes every catalog that was loaded and stops loading new ones.
+     */
+    @Override
+    public void close() {
+        loader.shutdown();
+        catalogs.values().forEach(catalog -> catalog.thenAccept(ProductManager::close));
+    }
+}
@@ -0,0 +1,308 @@
+package labs.pm.data;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * {@code CatalogSnapshot} writes the whole catalog to a compact binary file and reads it back.
+ * <p>
+ * Layout, all numbers big endian:
+ * <pre>
+ * header   int magic, short version, long created (epoch millis), long journal sequence, int product count
+ * product  long journal sequence, int id, byte type ('D' or 'F'), byte rating,
+ *          int price scale, short price length, price unscaled bytes,
+ *          int name length, name UTF-8 bytes, long best before epoch day (food only),
+ *          int review count, then per review: byte rating, int comment length, comment UTF-8 bytes
+ * trailer  int CRC32C of every byte before the trailer
+ * </pre>
+ * Files are written through a {@link FileChannel} to a {@code .part} file, forced to disk
+ * and atomically renamed, so a reader never sees a half written snapshot.
+ * Snapshot names embed a zero padded creation time, so the latest snapshot is simply the greatest name.
+ * Reading maps the file and verifies the checksum before decoding anything.
+ * <p>
+ * The header holds the last {@link ReviewJournal} sequence appended before the dump started, every review up to it
+ * is in the snapshot. Each product also records the sequence of its own last journaled review,
+ * so replaying the journal on top of a snapshot applies every later review exactly once.
+ * Version 1 snapshots carry no sequences and are read as sequence zero.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class CatalogSnapshot {
+    private static final Logger log = Logger.getLogger(CatalogSnapshot.class.getName());
+    private static final int MAGIC = 0x48534E50;
+    private static final short VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String PREFIX = "catalog-";
+    private static final String SUFFIX = ".snapshot";
+    private static final int RETAINED = 2;
+
+    private CatalogSnapshot() {
+    }
+
+    static String fileName(long createdMillis) {
+        return PREFIX + String.format("%019d", createdMillis) + SUFFIX;
+    }
+
+    /**
+     * @return snapshots in the folder, newest first
+     */
+    static List<Path> list(Path folder) throws IOException {
+        if (Files.notExists(folder)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted(Comparator.comparing((Path file) -> file.getFileName().toString()).reversed())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Writes a new snapshot of the store and removes all but the most recent older ones.
+     * @return the snapshot file
+     */
+    static Path write(Path folder, ProductStore store, long journalSequence) throws IOException {
+        Files.createDirectories(folder);
+        long created = System.currentTimeMillis();
+        Path target = folder.resolve(fileName(created));
+        Path part = folder.resolve(target.getFileName() + ".part");
+        List<ProductStore.Entry> entries = store.entries().collect(Collectors.toList());
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Encoder out = new Encoder(channel);
+            out.putInt(MAGIC);
+            out.putShort(VERSION);
+            out.putLong(created);
+            out.putLong(journalSequence);
+            out.putInt(entries.size());
+            List<Review> reviews = new ArrayList<>();
+            for (ProductStore.Entry entry : entries) {
+                reviews.clear();
+                Product product;
+                long sequence;
+                entry.lock();
+                try {
+                    reviews.addAll(entry.readReviews());
+                    product = entry.getProduct();
+                    sequence = entry.getJournalSequence();
+                } finally {
+                    entry.unlock();
+                }
+                out.putLong(sequence);
+                writeProduct(out, product);
+                out.putInt(reviews.size());
+                for (Review review : reviews) {
+                    out.put((byte) review.getRating().ordinal());
+                    out.putBytes(review.getComments().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            out.finish();
+            channel.force(true);
+        }
+        Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+        List<Path> snapshots = list(folder);
+        for (Path old : snapshots.subList(Math.min(RETAINED, snapshots.size()), snapshots.size())) {
+            Files.deleteIfExists(old);
+        }
+        return target;
+    }
+
+    /**
+     * Reads the newest snapshot in the folder that passes its checksum, falling back to older ones.
+     * @param checkpoint journal checkpoint, reviews up to it may no longer be in the journal,
+     *                   so a snapshot taken before it is stale and skipped
+     */
+    static Optional<ProductStore> readLatest(Path folder, long checkpoint) throws IOException {
+        for (Path file : list(folder)) {
+            try {
+                ProductStore store = read(file, checkpoint);
+                log.log(Level.INFO, "Restored {0} products from {1}", new Object[]{store.size(), file.getFileName()});
+                return Optional.of(store);
+            } catch (IOException | RuntimeException ex) {
+                log.log(Level.WARNING, "Skipping unreadable snapshot " + file, ex);
+            }
+        }
+        return Optional.empty();
+    }
+
+    static ProductStore read(Path file, long checkpoint) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + size);
+            }
+            if (size < Integer.BYTES * 3) {
+                throw new IOException("Snapshot truncated: " + file);
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int bodyLength = (int) size - Integer.BYTES;
+            CRC32C crc = new CRC32C();
+            crc.update(in.duplicate().limit(bodyLength));
+            if ((int) crc.getValue() != in.getInt(bodyLength)) {
+                throw new IOException("Snapshot checksum mismatch: " + file);
+            }
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a catalog snapshot: " + file);
+            }
+            short version = in.getShort();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            }
+            in.getLong();
+            long journalSequence = (version >= 2) ? in.getLong() : 0;
+            if (journalSequence < checkpoint) {
+                throw new IOException("Snapshot " + file + " predates journal checkpoint " + checkpoint);
+            }
+            int count = in.getInt();
+            ProductStore store = new ProductStore(count);
+            for (int i = 0; i < count; i++) {
+                long sequence = (version >= 2) ? in.getLong() : 0;
+                Product product = readProduct(in);
+                int reviewCount = in.getInt();
+                List<Review> reviews = new ArrayList<>(reviewCount);
+                for (int r = 0; r < reviewCount; r++) {
+                    Rating rating = Rateable.convert(in.get());
+                    reviews.add(new Review(rating, readString(in)));
+                }
+                ProductStore.Entry entry = new ProductStore.Entry(product, reviews);
+                entry.setJournalSequence(sequence);
+                store.putIfAbsent(entry);
+            }
+            return store;
+        }
+    }
+
+    private static void writeProduct(Encoder out, Product product) throws IOException {
+        out.putInt(product.getId());
+        out.put((byte) (product instanceof Food ? 'F' : 'D'));
+        out.put((byte) product.getRating().ordinal());
+        BigDecimal price = product.getPrice();
+        out.putInt(price.scale());
+        byte[] unscaled = price.unscaledValue().toByteArray();
+        out.putShort((short) unscaled.length);
+        out.put(unscaled);
+        out.putBytes(product.getName().getBytes(StandardCharsets.UTF_8));
+        if (product instanceof Food) {
+            out.putLong(product.getBestBefore().toEpochDay());
+        }
+    }
+
+    private static Product readProduct(ByteBuffer in) throws IOException {
+        int id = in.getInt();
+        byte type = in.get();
+        Rating rating = Rateable.convert(in.get());
+        int scale = in.getInt();
+        byte[] unscaled = new byte[in.getShort()];
+        in.get(unscaled);
+        BigDecimal price = new BigDecimal(new BigInteger(unscaled), scale);
+        String name = Names.intern(readString(in));
+        switch (type) {
+            case 'D':
+                return new Drink(id, name, price, rating);
+            case 'F':
+                return new Food(id, name, price, rating, LocalDate.ofEpochDay(in.getLong()));
+            default:
+                throw new IOException("Unknown product type " + type + " for product " + id);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffers writes to the channel and keeps a running checksum of everything written.
+     */
+    private static final class Encoder {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32C crc = new CRC32C();
+
+        private Encoder(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void put(byte value) throws IOException {
+            ensure(Byte.BYTES);
+            buffer.put(value);
+        }
+
+        private void putShort(short value) throws IOException {
+            ensure(Short.BYTES);
+            buffer.putShort(value);
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        private void putBytes(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            put(bytes);
+        }
+
+        private void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * {@code CompactCatalog} holds products and reviews in primitive columns instead of one object per product and review,
+ * for catalogs too large to keep as {@link Product} and {@link Review} instances.
+ * <p>
+ * Products are rows: id, type and rating as bytes, price as a {@code long} of cents, best before as an epoch day
+ * and the name as a reference into a table of distinct names. Reviews are rows too, a rating byte and the
+ * position of the comment in an arena of UTF-8 pages, chained per product so adding one never moves the others.
+ * A rating change overwrites a byte instead of creating a new product.
+ * <p>
+ * Rows are read through {@link ProductView} and {@link ReviewView}, reusable cursors that decode a column only when
+ * asked; {@link ProductView#toProduct()} and {@link ReviewView#toReview()} create regular instances when one is needed.
+ * A catalog is filled by one thread and can then be read by any number of threads, each with its own views,
+ * as long as it is published safely. It is not safe to add to while it is being read.
+ * <p>
+ * It is a standalone store, {@link ProductManager} does not run on it: {@link ProductManager#toCompactCatalog()}
+ * makes a detached copy, e.g. to measure the footprint or to hand a catalog to read-only code, and the manager keeps
+ * its own products and reviews as objects. Prices are held in whole cents, finer prices are rounded half up as
+ * {@link ProductManager#parseProduct(String)} rounds them.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class CompactCatalog {
+    private static final int PRICE_SCALE = 2;
+    private static final byte DRINK = 'D';
+    private static final byte FOOD = 'F';
+    private static final int PAGE_SIZE = 1 << 20;
+    private static final int NONE = -1;
+
+    private int size;
+    private int[] ids;
+    private byte[] types;
+    private byte[] ratings;
+    private long[] prices;
+    private int[] bestBefore;
+    private int[] names;
+    private int[] reviewCounts;
+    private long[] ratingSums;
+    private int[] firstReviews;
+    private int[] lastReviews;
+    private int[] slots;
+
+    private final List<String> nameTable = new ArrayList<>();
+    private final Map<String, Integer> nameRefs = new HashMap<>();
+
+    private int reviewSize;
+    private byte[] reviewRatings;
+    private long[] commentOffsets;
+    private int[] commentLengths;
+    private int[] nextReviews;
+    private final List<byte[]> pages = new ArrayList<>();
+    private int pagePosition = PAGE_SIZE;
+
+    public CompactCatalog(int expectedProducts, int expectedReviews) {
+        int capacity = Math.max(expectedProducts, 16);
+        ids = new int[capacity];
+        types = new byte[capacity];
+        ratings = new byte[capacity];
+        prices = new long[capacity];
+        bestBefore = new int[capacity];
+        names = new int[capacity];
+        reviewCounts = new int[capacity];
+        ratingSums = new long[capacity];
+        firstReviews = new int[capacity];
+        lastReviews = new int[capacity];
+        slots = new int[Integer.highestOneBit(capacity) << 2];
+        int reviewCapacity = Math.max(expectedReviews, 16);
+        reviewRatings = new byte[reviewCapacity];
+        commentOffsets = new long[reviewCapacity];
+        commentLengths = new int[reviewCapacity];
+        nextReviews = new int[reviewCapacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int reviewCount() {
+        return reviewSize;
+    }
+
+    /**
+     * Adds a product with no reviews, its price rounded half up to whole cents.
+     * @throws IllegalArgumentException if the id is taken or the price does not fit in a {@code long} of cents
+     */
+    public void add(Product product) {
+        if (row(product.getId()) != NONE) {
+            throw new IllegalArgumentException("Product " + product.getId() + " already exists");
+        }
+        long cents;
+        try {
+            cents = product.getPrice().setScale(PRICE_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException("Price of product " + product.getId() + " is out of range", ex);
+        }
+        if (size == ids.length) {
+            grow();
+        }
+        int row = size++;
+        ids[row] = product.getId();
+        types[row] = (product instanceof Food) ? FOOD : DRINK;
+        ratings[row] = (byte) product.getRating().ordinal();
+        prices[row] = cents;
+        bestBefore[row] = (product instanceof Food) ? (int) product.getBestBefore().toEpochDay() : 0;
+        names[row] = nameRef(product.getName());
+        firstReviews[row] = NONE;
+        lastReviews[row] = NONE;
+        if (size * 2 > slots.length) {
+            rehash();
+        } else {
+            index(row);
+        }
+    }
+
+    /**
+     * Appends a review and moves the product rating to the new average, as {@link ProductManager#reviewProduct} does.
+     * @throws IllegalArgumentException if there is no such product
+     */
+    public void addReview(int id, Rating rating, String comments) {
+        appendReview(id, rating, comments);
+        int row = row(id);
+        reviewCounts[row]++;
+        ratingSums[row] += rating.ordinal();
+        ratings[row] = (byte) Math.round((double) ratingSums[row] / reviewCounts[row]);
+    }
+
+    /**
+     * Appends a review that is already reflected in the product rating, e.g. when copying a loaded catalog.
+     */
+    void appendReview(int id, Rating rating, String comments) {
+        int row = row(id);
+        if (row == NONE) {
+            throw new IllegalArgumentException("Product " + id + " does not exist");
+        }
+        if (reviewSize == reviewRatings.length) {
+            growReviews();
+        }
+        int review = reviewSize++;
+        reviewRatings[review] = (byte) rating.ordinal();
+        byte[] bytes = comments.getBytes(StandardCharsets.UTF_8);
+        commentOffsets[review] = store(bytes);
+        commentLengths[review] = bytes.length;
+        nextReviews[review] = NONE;
+        if (lastReviews[row] == NONE) {
+            firstReviews[row] = review;
+        } else {
+            nextReviews[lastReviews[row]] = review;
+        }
+        lastReviews[row] = review;
+    }
+
+    /**
+     * Copies the reviews already counted in the product's current rating, so later reviews average with them.
+     */
+    void seedRatings(int id, RatingSummary summary) {
+        int row = row(id);
+        reviewCounts[row] = summary.getCount();
+        ratingSums[row] = summary.getSum();
+    }
+
+    /**
+     * @return a new cursor, not positioned on any product
+     */
+    public ProductView productView() {
+        return new ProductView();
+    }
+
+    /**
+     * Positions a reused view on every product in turn, in the order they were added.
+     */
+    public void forEachProduct(Consumer<ProductView> action) {
+        ProductView view = new ProductView();
+        for (int row = 0; row < size; row++) {
+            view.row = row;
+            action.accept(view);
+        }
+    }
+
+    /**
+     * Rough count of the bytes held by the columns, arena and name table, excluding object headers.
+     */
+    public long getFootprint() {
+        long bytes = (long) ids.length * (4 + 1 + 1 + 8 + 4 + 4 + 4 + 8 + 4 + 4) + slots.length * 4L;
+        bytes += (long) reviewRatings.length * (1 + 8 + 4 + 4);
+        bytes += (long) pages.size() * PAGE_SIZE;
+        for (String name : nameTable) {
+            bytes += 40 + name.length();
+        }
+        return bytes;
+    }
+
+    private int nameRef(String name) {
+        Integer ref = nameRefs.get(name);
+        if (ref == null) {
+            ref = nameTable.size();
+            nameTable.add(Names.intern(name));
+            nameRefs.put(name, ref);
+        }
+        return ref;
+    }
+
+    /**
+     * Copies the bytes into the current arena page, starting a new page when they do not fit.
+     * Empty comments take no space and are stored at offset 0 without a page.
+     * @return page index in the high and position in the low 32 bits
+     */
+    private long store(byte[] bytes) {
+        if (bytes.length == 0) {
+            return 0;
+        }
+        if (PAGE_SIZE - pagePosition < bytes.length) {
+            pages.add(new byte[Math.max(PAGE_SIZE, bytes.length)]);
+            pagePosition = 0;
+        }
+        int page = pages.size() - 1;
+        System.arraycopy(bytes, 0, pages.get(page), pagePosition, bytes.length);
+        long offset = ((long) page << 32) | pagePosition;
+        pagePosition += bytes.length;
+        return offset;
+    }
+
+    private String comments(int review) {
+        if (commentLengths[review] == 0) {
+            return "";
+        }
+        long offset = commentOffsets[review];
+        return new String(pages.get((int) (offset >>> 32)), (int) offset, commentLengths[review], StandardCharsets.UTF_8);
+    }
+
+    private int row(int id) {
+        int mask = slots.length - 1;
+        for (int i = hash(id) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int row = slots[i] - 1;
+            if (ids[row] == id) {
+                return row;
+            }
+        }
+        return NONE;
+    }
+
+    // slots hold row + 1 so that zero marks a free slot
+    private void index(int row) {
+        int mask = slots.length - 1;
+        int i = hash(ids[row]) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = row + 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length << 1];
+        for (int row = 0; row < size; row++) {
+            index(row);
+        }
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow() {
+        int capacity = ids.length + (ids.length >> 1);
+        ids = Arrays.copyOf(ids, capacity);
+        types = Arrays.copyOf(types, capacity);
+        ratings = Arrays.copyOf(ratings, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        bestBefore = Arrays.copyOf(bestBefore, capacity);
+        names = Arrays.copyOf(names, capacity);
+        reviewCounts = Arrays.copyOf(reviewCounts, capacity);
+        ratingSums = Arrays.copyOf(ratingSums, capacity);
+        firstReviews = Arrays.copyOf(firstReviews, capacity);
+        lastReviews = Arrays.copyOf(lastReviews, capacity);
+    }
+
+    private void growReviews() {
+        int capacity = reviewRatings.length + (reviewRatings.length >> 1);
+        reviewRatings = Arrays.copyOf(reviewRatings, capacity);
+        commentOffsets = Arrays.copyOf(commentOffsets, capacity);
+        commentLengths = Arrays.copyOf(commentLengths, capacity);
+        nextReviews = Arrays.copyOf(nextReviews, capacity);
+    }
+
+    /**
+     * A cursor over product rows. Reading a property decodes it from its column on every call.
+     */
+    public final class ProductView {
+        private int row = NONE;
+
+        private ProductView() {
+        }
+
+        /**
+         * @return {@code true} if the view is now on the product, {@code false} if there is no such product
+         */
+        public boolean moveTo(int id) {
+            row = row(id);
+            return row != NONE;
+        }
+
+        public int getId() {
+            return ids[row];
+        }
+
+        public String getName() {
+            return nameTable.get(names[row]);
+        }
+
+        public long getPriceCents() {
+            return prices[row];
+        }
+
+        public BigDecimal getPrice() {
+            return BigDecimal.valueOf(prices[row], PRICE_SCALE);
+        }
+
+        public Rating getRating() {
+            return Rateable.convert(ratings[row]);
+        }
+
+        public boolean isFood() {
+            return types[row] == FOOD;
+        }
+
+        public LocalDate getBestBefore() {
+            return isFood() ? LocalDate.ofEpochDay(bestBefore[row]) : LocalDate.now();
+        }
+
+        public int getReviewCount() {
+            int count = 0;
+            for (int review = firstReviews[row]; review != NONE; review = nextReviews[review]) {
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Positions a reused review view on each review of this product, in the order they were added.
+         */
+        public void forEachReview(Consumer<ReviewView> action) {
+            ReviewView view = new ReviewView();
+            for (int review = firstReviews[row]; review != NONE; review = nextReviews[review]) {
+                view.review = review;
+                action.accept(view);
+            }
+        }
+
+        /**
+         * @return a regular product instance with this row's current values
+         */
+        public Product toProduct() {
+            return isFood()
+                    ? new Food(getId(), getName(), getPrice(), getRating(), getBestBefore())
+                    : new Drink(getId(), getName(), getPrice(), getRating());
+        }
+    }
+
+    /**
+     * A cursor over review rows.
+     */
+    public final class ReviewView {
+        private int review = NONE;
+
+        private ReviewView() {
+        }
+
+        public Rating getRating() {
+            return Rateable.convert(reviewRatings[review]);
+        }
+
+        public String getComments() {
+            return comments(review);
+        }
+
+        public Review toReview() {
+            return new Review(getRating(), getComments());
+        }
+    }
+}
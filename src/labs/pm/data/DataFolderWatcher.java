@@ -0,0 +1,112 @@
+package labs.pm.data;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@code DataFolderWatcher} watches a data folder and hands the files that were created, changed or deleted
+ * to a callback in batches.
+ * <p>
+ * A batch starts with the first event and closes once the folder has been quiet for {@code quietMillis},
+ * or {@code maxDelayMillis} after it started if events keep coming, so copying a thousand files into the folder
+ * makes one batch rather than a thousand. A file touched several times in a batch is listed once.
+ * If the watch service loses events the callback receives {@code null}, meaning the whole folder must be rescanned.
+ * The callback runs on the watcher thread, one batch at a time.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class DataFolderWatcher implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(DataFolderWatcher.class.getName());
+    private final Path folder;
+    private final WatchService watchService;
+    private final Predicate<Path> relevant;
+    private final Consumer<Set<Path>> changes;
+    private final long quietNanos;
+    private final long maxDelayNanos;
+    private final Thread thread;
+
+    DataFolderWatcher(Path folder, Predicate<Path> relevant, long quietMillis, long maxDelayMillis,
+                      Consumer<Set<Path>> changes) throws IOException {
+        this.folder = folder;
+        this.relevant = relevant;
+        this.changes = changes;
+        this.quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        watchService = FileSystems.getDefault().newWatchService();
+        folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        thread = new Thread(this::watch, "data-folder-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                Set<Path> batch = new LinkedHashSet<>();
+                boolean overflow = collect(watchService.take(), batch);
+                long started = System.nanoTime();
+                for (long now = started; now - started < maxDelayNanos; now = System.nanoTime()) {
+                    WatchKey key = watchService.poll(Math.min(quietNanos, maxDelayNanos - (now - started)),
+                            TimeUnit.NANOSECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    overflow |= collect(key, batch);
+                }
+                if (overflow || !batch.isEmpty()) {
+                    try {
+                        changes.accept(overflow ? null : batch);
+                    } catch (RuntimeException ex) {
+                        log.log(Level.SEVERE, "Error applying changes in " + folder, ex);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            log.log(Level.FINE, "Stopped watching {0}", folder);
+        }
+    }
+
+    /**
+     * @return {@code true} if the key reports lost events
+     */
+    private boolean collect(WatchKey key, Set<Path> batch) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else {
+                Path file = folder.resolve((Path) event.context());
+                if (relevant.test(file)) {
+                    batch.add(file);
+                }
+            }
+        }
+        if (!key.reset()) {
+            log.log(Level.WARNING, "Data folder {0} can no longer be watched", folder);
+        }
+        return overflow;
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Error closing watch service for " + folder, ex);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@code DiscountIndex} keeps the catalog's discount totals per {@link Rating} up to date as products are added
+ * and re-rated, so reading the discounts never walks the catalog.
+ * <p>
+ * Amounts are kept exactly as whole cents in {@code long}s. Drink discounts only count during happy hour
+ * and food discounts only on their best before day, so drinks are summed per rating and food per rating per day.
+ * Which of those sums apply is worked out once per {@link Phase}: the stretch of time up to the next
+ * happy hour start or end, or midnight. Reads within a phase only add up six pairs of numbers.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class DiscountIndex {
+    static final LocalTime HAPPY_HOUR_START = LocalTime.of(17, 30);
+    static final LocalTime HAPPY_HOUR_END = LocalTime.of(18, 30);
+    private static final int RATINGS = Rating.values().length;
+    private final Clock clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int[] products = new int[RATINGS];
+    private final long[] drinks = new long[RATINGS];
+    private final Map<Long, Bucket> food = new HashMap<>();
+    private volatile Phase phase;
+
+    DiscountIndex(Clock clock) {
+        this.clock = clock;
+    }
+
+    void add(Product product) {
+        lock.lock();
+        try {
+            update(product, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(Product product) {
+        lock.lock();
+        try {
+            update(product, -1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void replace(Product previous, Product product) {
+        lock.lock();
+        try {
+            update(previous, -1);
+            update(product, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return discount totals that apply right now, for every rating that has products, in rating order
+     */
+    Map<Rating, BigDecimal> getDiscounts() {
+        Phase current = currentPhase();
+        Map<Rating, BigDecimal> discounts = new EnumMap<>(Rating.class);
+        lock.lock();
+        try {
+            Bucket today = food.get(current.epochDay);
+            for (Rating rating : Rating.values()) {
+                int r = rating.ordinal();
+                if (products[r] > 0) {
+                    long cents = (current.happyHour ? drinks[r] : 0) + (today == null ? 0 : today.cents[r]);
+                    discounts.put(rating, BigDecimal.valueOf(cents, 2));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return discounts;
+    }
+
+    private void update(Product product, int sign) {
+        int r = product.getRating().ordinal();
+        long cents = product.getFullDiscount().movePointRight(2).longValueExact();
+        products[r] += sign;
+        if (product instanceof Food) {
+            long day = product.getBestBefore().toEpochDay();
+            Bucket bucket = food.computeIfAbsent(day, key -> new Bucket());
+            bucket.cents[r] += sign * cents;
+            bucket.products += sign;
+            if (bucket.products == 0) {
+                food.remove(day);
+            }
+        } else {
+            drinks[r] += sign * cents;
+        }
+    }
+
+    private Phase currentPhase() {
+        Phase current = phase;
+        long now = clock.millis();
+        if (current == null || now >= current.until) {
+            current = Phase.at(ZonedDateTime.now(clock));
+            phase = current;
+        }
+        return current;
+    }
+
+    private static final class Bucket {
+        private final long[] cents = new long[RATINGS];
+        private int products;
+    }
+
+    /**
+     * Which discounts apply from a moment until the next boundary.
+     */
+    private static final class Phase {
+        private final long epochDay;
+        private final boolean happyHour;
+        private final long until;
+
+        private Phase(long epochDay, boolean happyHour, long until) {
+            this.epochDay = epochDay;
+            this.happyHour = happyHour;
+            this.until = until;
+        }
+
+        private static Phase at(ZonedDateTime now) {
+            LocalTime time = now.toLocalTime();
+            LocalDate today = now.toLocalDate();
+            boolean happyHour = time.isAfter(HAPPY_HOUR_START) && time.isBefore(HAPPY_HOUR_END);
+            ZonedDateTime next;
+            if (!time.isAfter(HAPPY_HOUR_START)) {
+                // the window starts just after 17:30, so the 17:30 millisecond itself still belongs to this phase
+                next = today.atTime(HAPPY_HOUR_START).atZone(now.getZone()).plus(Duration.ofMillis(1));
+            } else if (happyHour) {
+                next = today.atTime(HAPPY_HOUR_END).atZone(now.getZone());
+            } else {
+                next = today.plusDays(1).atStartOfDay(now.getZone());
+            }
+            return new Phase(today.toEpochDay(), happyHour, next.toInstant().toEpochMilli());
+        }
+    }
+}
@@ -17,6 +17,6 @@ public final class Drink extends Product{
     @Override
     public BigDecimal getDiscount() {
         LocalTime now = LocalTime.now();
-        return (now.isAfter(LocalTime.of(17, 30)) && now.isBefore(LocalTime.of(18, 30))) ? super.getDiscount() : BigDecimal.ZERO;
+        return (now.isAfter(DiscountIndex.HAPPY_HOUR_START) && now.isBefore(DiscountIndex.HAPPY_HOUR_END)) ? getFullDiscount() : BigDecimal.ZERO;
     }
 }
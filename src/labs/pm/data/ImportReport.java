@@ -0,0 +1,91 @@
+package labs.pm.data;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@code ImportReport} describes a bulk review import: how many reviews were applied to how many products,
+ * how many rows were rejected and why, and how long it took.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class ImportReport {
+    private final long applied;
+    private final long rejected;
+    private final int products;
+    private final Map<String, String> errors;
+    private final Duration duration;
+
+    ImportReport(long applied, long rejected, int products, Map<String, String> errors, Duration duration) {
+        this.applied = applied;
+        this.rejected = rejected;
+        this.products = products;
+        this.errors = Map.copyOf(errors);
+        this.duration = duration;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return number of products that received at least one review
+     */
+    public int getProducts() {
+        return products;
+    }
+
+    /**
+     * @return the sources, files or products, that had rows rejected, mapped to the first reason
+     */
+    public Map<String, String> getErrors() {
+        return errors;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return applied + " reviews applied to " + products + " products, " + rejected + " rejected from "
+                + errors.size() + " sources in " + duration.toMillis() + " ms";
+    }
+
+    /**
+     * Counts an import as it runs, on the importing thread only.
+     */
+    static final class Tally {
+        private final long start = System.nanoTime();
+        private final Set<Integer> products = new HashSet<>();
+        private final Map<String, String> errors = new LinkedHashMap<>();
+        private long applied;
+        private long rejected;
+
+        void applied(int productId, int count) {
+            if (count > 0) {
+                applied += count;
+                products.add(productId);
+            }
+        }
+
+        void rejected(String source, long count, String reason) {
+            if (count > 0) {
+                rejected += count;
+                errors.putIfAbsent(source, reason);
+            }
+        }
+
+        ImportReport toReport() {
+            return new ImportReport(applied, rejected, products.size(), errors,
+                    Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package labs.pm.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@code JournalCompactor} folds sealed {@link ReviewJournal} segments back into the per product review files.
+ * <p>
+ * New review files are first written next to their targets with a {@code .compact} suffix.
+ * Once all of them are on disk a manifest naming them, the sealed segments and the new checkpoint is written;
+ * that manifest is the commit point. The files are then renamed into place, the checkpoint is moved forward
+ * and the segments and manifest are deleted. {@link #recover()} finishes a compaction that has a manifest
+ * and throws away the leftovers of one that does not, so a crash never folds a review twice or loses one.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class JournalCompactor {
+    private static final Logger log = Logger.getLogger(JournalCompactor.class.getName());
+    private static final String MANIFEST = "journal.compaction";
+    private static final String PENDING = ".compact";
+    private final ReviewJournal journal;
+    private final Path journalFolder;
+    private final Path dataFolder;
+    private final IntFunction<String> reviewsFileName;
+    private final RecordParser reviewFormat;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    JournalCompactor(ReviewJournal journal, Path journalFolder, Path dataFolder,
+                     IntFunction<String> reviewsFileName, RecordParser reviewFormat) {
+        this.journal = journal;
+        this.journalFolder = journalFolder;
+        this.dataFolder = dataFolder;
+        this.reviewsFileName = reviewsFileName;
+        this.reviewFormat = reviewFormat;
+    }
+
+    /**
+     * Completes or rolls back a compaction interrupted by a crash. Call before replaying the journal.
+     */
+    void recover() throws IOException {
+        Path manifest = journalFolder.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+            long checkpoint = Long.parseLong(lines.get(0));
+            List<Path> segments = new ArrayList<>();
+            for (String line : lines.subList(1, lines.size())) {
+                if (line.startsWith("segment ")) {
+                    segments.add(journalFolder.resolve(line.substring("segment ".length())));
+                } else if (line.startsWith("file ")) {
+                    Path target = dataFolder.resolve(line.substring("file ".length()));
+                    Path pending = pendingFile(target);
+                    if (Files.exists(pending)) {
+                        Files.move(pending, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+            finish(checkpoint, segments, manifest);
+            log.log(Level.INFO, "Completed interrupted journal compaction up to {0}", checkpoint);
+        } else if (Files.exists(dataFolder)) {
+            try (Stream<Path> files = Files.list(dataFolder)) {
+                for (Path pending : files.filter(file -> file.getFileName().toString().endsWith(PENDING))
+                        .collect(Collectors.toList())) {
+                    Files.delete(pending);
+                }
+            }
+        }
+    }
+
+    /**
+     * Seals the active journal segment and folds every sealed segment into the review files.
+     * @return number of reviews folded per product id, empty if there was nothing to fold
+     */
+    Map<Integer, Integer> compact() throws IOException {
+        if (!lock.tryLock()) {
+            return Map.of();
+        }
+        try {
+            List<Path> sealed = journal.rotate();
+            if (sealed.isEmpty()) {
+                return Map.of();
+            }
+            long previous = journal.getCheckpoint();
+            long[] checkpoint = {previous};
+            Map<Integer, StringBuilder> additions = new TreeMap<>();
+            Map<Integer, Integer> folded = new TreeMap<>();
+            int[] count = {0};
+            for (Path segment : sealed) {
+                journal.read(segment, record -> {
+                    if (record.getSequence() > previous) {
+                        additions.computeIfAbsent(record.getProductId(), id -> new StringBuilder())
+                                .append(reviewFormat.format(String.valueOf(record.getRating().ordinal()), record.getComments()))
+                                .append(System.lineSeparator());
+                        folded.merge(record.getProductId(), 1, Integer::sum);
+                        checkpoint[0] = Math.max(checkpoint[0], record.getSequence());
+                        count[0]++;
+                    }
+                });
+            }
+            StringBuilder manifest = new StringBuilder().append(checkpoint[0]).append('\n');
+            sealed.forEach(segment -> manifest.append("segment ").append(segment.getFileName()).append('\n'));
+            for (Map.Entry<Integer, StringBuilder> addition : additions.entrySet()) {
+                Path target = dataFolder.resolve(reviewsFileName.apply(addition.getKey()));
+                writePending(target, addition.getValue());
+                manifest.append("file ").append(target.getFileName()).append('\n');
+            }
+            Path manifestFile = journalFolder.resolve(MANIFEST);
+            Path part = journalFolder.resolve(MANIFEST + ".part");
+            try (FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                out.write(StandardCharsets.UTF_8.encode(manifest.toString()));
+                out.force(true);
+            }
+            Files.move(part, manifestFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            for (Integer id : additions.keySet()) {
+                Path target = dataFolder.resolve(reviewsFileName.apply(id));
+                Files.move(pendingFile(target), target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            finish(checkpoint[0], sealed, manifestFile);
+            log.log(Level.INFO, "Compacted {0} journaled reviews into {1} review files",
+                    new Object[]{count[0], additions.size()});
+            return folded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writePending(Path target, CharSequence lines) throws IOException {
+        try (FileChannel out = FileChannel.open(pendingFile(target), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            if (Files.exists(target)) {
+                try (FileChannel in = FileChannel.open(target, StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long copied = 0;
+                    while (copied < size) {
+                        copied += in.transferTo(copied, size - copied, out);
+                    }
+                    ByteBuffer last = ByteBuffer.allocate(1);
+                    if (size > 0 && in.read(last, size - 1) == 1 && last.get(0) != '\n') {
+                        out.write(StandardCharsets.UTF_8.encode(System.lineSeparator()));
+                    }
+                }
+            }
+            out.write(StandardCharsets.UTF_8.encode(lines.toString()));
+            out.force(true);
+        }
+    }
+
+    private void finish(long checkpoint, List<Path> segments, Path manifest) throws IOException {
+        journal.setCheckpoint(checkpoint);
+        for (Path segment : segments) {
+            Files.deleteIfExists(segment);
+        }
+        Files.deleteIfExists(manifest);
+    }
+
+    private static Path pendingFile(Path target) {
+        return target.resolveSibling(target.getFileName() + PENDING);
+    }
+}
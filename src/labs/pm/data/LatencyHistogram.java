@@ -0,0 +1,92 @@
+package labs.pm.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code LatencyHistogram} counts durations in nanoseconds in log-linear buckets, in the manner of an HDR histogram.
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} equal buckets, so any recorded value is known to within
+ * about 3% from a fixed array of about 1,300 counters, up to roughly 19 hours. Recording is a couple of atomic
+ * increments into preallocated arrays and never allocates; reading copies the counters into a {@link LatencyStats}.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = 40;
+    private static final long MAX_VALUE = (2L * SUB_BUCKETS << MAX_SHIFT) - 1;
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + (MAX_SHIFT + 1) * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+    }
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        total.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // lost a race with a larger or equal value, try again
+        }
+    }
+
+    /**
+     * Records the time since {@code startNanos}, as taken from {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public LatencyStats snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        long max = this.max.get();
+        // a bucket midpoint can lie above the largest value recorded in it
+        return new LatencyStats(count, total.sum(), max,
+                Math.min(percentile(copy, count, 0.5), max), Math.min(percentile(copy, count, 0.9), max),
+                Math.min(percentile(copy, count, 0.99), max), Math.min(percentile(copy, count, 0.999), max));
+    }
+
+    private static long percentile(long[] counts, long count, double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return midpoint(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    private static long midpoint(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+}
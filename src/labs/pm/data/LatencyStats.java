@@ -0,0 +1,74 @@
+package labs.pm.data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code LatencyStats} is a point in time summary of a latency histogram, all durations in nanoseconds.
+ * Percentiles are accurate to about 3%.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class LatencyStats {
+    private final long count;
+    private final long total;
+    private final long max;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+
+    public LatencyStats(long count, long total, long max, long p50, long p90, long p99, long p999) {
+        this.count = count;
+        this.total = total;
+        this.max = max;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return sum of every recorded duration
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%dus p50=%dus p99=%dus p99.9=%dus max=%dus", count,
+                micros(getMean()), micros(p50), micros(p99), micros(p999), micros(max));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,56 @@
+package labs.pm.data;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * {@code LoadReport} describes how loading the data folder went:
+ * how many files were read, what ended up in the catalog, which files failed and how long it took.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class LoadReport {
+    private final int productFiles;
+    private final int products;
+    private final long reviews;
+    private final Map<Path, String> errors;
+    private final Duration duration;
+
+    LoadReport(int productFiles, int products, long reviews, Map<Path, String> errors, Duration duration) {
+        this.productFiles = productFiles;
+        this.products = products;
+        this.reviews = reviews;
+        this.errors = Map.copyOf(errors);
+        this.duration = duration;
+    }
+
+    public int getProductFiles() {
+        return productFiles;
+    }
+
+    public int getProducts() {
+        return products;
+    }
+
+    public long getReviews() {
+        return reviews;
+    }
+
+    /**
+     * @return the files that could not be loaded, mapped to the reason
+     */
+    public Map<Path, String> getErrors() {
+        return errors;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return productFiles + " files, " + products + " products, " + reviews + " reviews, "
+                + errors.size() + " errors in " + duration.toMillis() + " ms";
+    }
+}
@@ -0,0 +1,12 @@
+package labs.pm.data;
+
+/**
+ * {@code MetricsExporter} receives periodic {@link MetricsSnapshot}s of a catalog,
+ * e.g. to push them to a monitoring system. See {@link ProductManager#addMetricsExporter(MetricsExporter, long)}.
+ * @author zackwilcox
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+    void export(MetricsSnapshot snapshot);
+}
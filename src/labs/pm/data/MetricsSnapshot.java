@@ -0,0 +1,99 @@
+package labs.pm.data;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * {@code MetricsSnapshot} holds the metrics of one catalog as they were at one moment:
+ * latency and error counts per operation, entry lock wait and hold times, parse errors and store sizes.
+ * Counters and histograms are cumulative since the catalog was created, exporters that want rates
+ * subtract the previous snapshot.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class MetricsSnapshot {
+    public enum Operation {
+        FIND, REVIEW, REPORT, DISCOUNTS, LOAD, IMPORT, RELOAD, SEARCH
+    }
+
+    private final long timestamp;
+    private final Map<Operation, LatencyStats> latencies;
+    private final Map<Operation, Long> errors;
+    private final LatencyStats lockWait;
+    private final LatencyStats lockHold;
+    private final long productParseErrors;
+    private final long reviewParseErrors;
+    private final int products;
+    private final long reviews;
+
+    MetricsSnapshot(long timestamp, Map<Operation, LatencyStats> latencies, Map<Operation, Long> errors,
+                    LatencyStats lockWait, LatencyStats lockHold, long productParseErrors, long reviewParseErrors,
+                    int products, long reviews) {
+        this.timestamp = timestamp;
+        this.latencies = Collections.unmodifiableMap(latencies);
+        this.errors = Collections.unmodifiableMap(errors);
+        this.lockWait = lockWait;
+        this.lockHold = lockHold;
+        this.productParseErrors = productParseErrors;
+        this.reviewParseErrors = reviewParseErrors;
+        this.products = products;
+        this.reviews = reviews;
+    }
+
+    /**
+     * @return when the snapshot was taken, in epoch milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public LatencyStats getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    public Map<Operation, LatencyStats> getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return how many calls of the operation failed, e.g. asked for a product that does not exist
+     */
+    public long getErrors(Operation operation) {
+        return errors.get(operation);
+    }
+
+    public LatencyStats getLockWait() {
+        return lockWait;
+    }
+
+    public LatencyStats getLockHold() {
+        return lockHold;
+    }
+
+    public long getProductParseErrors() {
+        return productParseErrors;
+    }
+
+    public long getReviewParseErrors() {
+        return reviewParseErrors;
+    }
+
+    public int getProducts() {
+        return products;
+    }
+
+    public long getReviews() {
+        return reviews;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(products).append(" products, ").append(reviews).append(" reviews, ")
+                .append(productParseErrors).append('/').append(reviewParseErrors).append(" parse errors");
+        latencies.forEach((operation, stats) -> text.append("\n").append(operation).append(": ").append(stats)
+                .append(" errors=").append(errors.get(operation)));
+        text.append("\nlock wait: ").append(lockWait).append("\nlock hold: ").append(lockHold);
+        return text.toString();
+    }
+}
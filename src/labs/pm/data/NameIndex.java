@@ -0,0 +1,347 @@
+package labs.pm.data;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code NameIndex} is an inverted index from the words of product names to their entries, for keyword and prefix search.
+ * <p>
+ * Names are split into words at anything that is not a letter or a digit, and words are case folded and stripped
+ * of accents, so {@code "creme"} finds {@code "Cr&egrave;me Br&ucirc;l&eacute;e"}. Every word of the search text must
+ * match a word of the name, either in full or as its prefix, so {@code "choc cak"} finds {@code "Chocolate Cake"}.
+ * Words are kept in a skip list, a prefix is one range of it.
+ * <p>
+ * Matches are ranked by how many search words matched a whole word rather than a prefix, then by the query order,
+ * best rating first if the query has none. Each word keeps its entries by rating and then by id, so a search in rating
+ * order merges the entries of the matching words in rank order and stops as soon as no later entry can make the page,
+ * however many products share a popular word. Other orders rank every candidate in a bounded heap.
+ * <p>
+ * Only the search word with the fewest entries is looked up, the other words and the query criteria are checked
+ * against the candidate's current product, so like {@link ProductIndex} a search is weakly consistent but never
+ * returns a product that does not match. Words are added and removed under the store write lock, a rating change
+ * moves the entry within the postings of its words under the entry lock.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class NameIndex {
+    private static final Comparator<ProductStore.Entry> BY_ID = Comparator.comparingInt(ProductStore.Entry::getId);
+    private final NavigableMap<String, Postings> byWord = new ConcurrentSkipListMap<>();
+
+    void add(ProductStore.Entry entry, Product product) {
+        for (String word : words(product.getName())) {
+            add(entry, product.getRating(), word);
+        }
+    }
+
+    void remove(ProductStore.Entry entry, Product product) {
+        for (String word : words(product.getName())) {
+            remove(entry, product.getRating(), word);
+        }
+    }
+
+    /**
+     * Moves the entry to the postings of its new product, only the words and ratings that changed are touched.
+     * The new postings are added before the old ones are removed so a concurrent search always finds the entry.
+     */
+    void replace(ProductStore.Entry entry, Product previous, Product product) {
+        boolean rerated = previous.getRating() != product.getRating();
+        if (!rerated && previous.getName().equals(product.getName())) {
+            return;
+        }
+        List<String> words = words(product.getName());
+        for (String word : words) {
+            add(entry, product.getRating(), word);
+        }
+        for (String word : words(previous.getName())) {
+            if (rerated || !words.contains(word)) {
+                remove(entry, previous.getRating(), word);
+            }
+        }
+    }
+
+    private void add(ProductStore.Entry entry, Rating rating, String word) {
+        byWord.computeIfAbsent(word, w -> new Postings()).add(entry, rating);
+    }
+
+    private void remove(ProductStore.Entry entry, Rating rating, String word) {
+        Postings postings = byWord.get(word);
+        if (postings != null && postings.remove(entry, rating)) {
+            byWord.computeIfPresent(word, (w, p) -> p.isEmpty() ? null : p);
+        }
+    }
+
+    /**
+     * @return the requested page of products whose name matches every word of the text and that match the query
+     */
+    List<Product> search(String text, ProductQuery query) {
+        List<String> terms = words(text);
+        int wanted = query.getWanted();
+        if (terms.isEmpty() || wanted == 0) {
+            return List.of();
+        }
+        Comparator<Product> order = (query.getOrder() == null) ? ProductQuery.BY_RATING : query.getOrder();
+        // no product can match more search words in full than there are search words indexed as whole words
+        int bestExact = 0;
+        for (String term : terms) {
+            if (byWord.containsKey(term)) {
+                bestExact++;
+            }
+        }
+        Matches matches = new Matches(terms, query, order, wanted, bestExact);
+        Collection<Postings> candidates = candidates(terms);
+        if (order == ProductQuery.BY_RATING || order == ProductQuery.BY_RATING_ASCENDING) {
+            Rating[] ratings = Rating.values();
+            for (int i = 0; i < ratings.length && !matches.isComplete(); i++) {
+                Rating rating = ratings[(order == ProductQuery.BY_RATING) ? ratings.length - 1 - i : i];
+                if (query.getRatings() == null || query.getRatings().contains(rating)) {
+                    walk(candidates, rating, matches);
+                }
+            }
+        } else {
+            for (Postings postings : candidates) {
+                for (Set<ProductStore.Entry> entries : postings.byRating) {
+                    entries.forEach(matches::offer);
+                }
+            }
+        }
+        return matches.page(query.getOffset());
+    }
+
+    /**
+     * Offers the entries with the rating in id order, merging the postings of every candidate word,
+     * until the matches are complete.
+     */
+    private static void walk(Collection<Postings> candidates, Rating rating, Matches matches) {
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+        for (Postings postings : candidates) {
+            Cursor cursor = new Cursor(postings.byRating.get(rating.ordinal()).iterator());
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        while (!cursors.isEmpty() && !matches.isComplete()) {
+            Cursor cursor = cursors.poll();
+            matches.offer(cursor.head);
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+    }
+
+    /**
+     * @return the postings of the words starting with the search word that has the fewest entries
+     */
+    private Collection<Postings> candidates(List<String> terms) {
+        Collection<Postings> best = List.of();
+        long bestSize = Long.MAX_VALUE;
+        for (String term : terms) {
+            Collection<Postings> option = byWord.subMap(term, true, term + Character.MAX_VALUE, false).values();
+            long size = 0;
+            for (Postings postings : option) {
+                size += postings.size.get();
+                if (size >= bestSize) {
+                    break;
+                }
+            }
+            if (size < bestSize) {
+                best = option;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the distinct words of the text, case folded and without accents, in order
+     */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>(4);
+        String folded = fold(text);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean inWord = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                String word = folded.substring(start, i);
+                if (!words.contains(word)) {
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static String fold(String text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (!ascii) {
+            // decompose accented letters and drop the marks, so an accented e folds to a plain "e"
+            text = Normalizer.normalize(text, Normalizer.Form.NFKD).replaceAll("\\p{M}+", "");
+        }
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The entries of one word, one set per rating ordered by id.
+     */
+    private static final class Postings {
+        private final List<NavigableSet<ProductStore.Entry>> byRating = new ArrayList<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        Postings() {
+            for (Rating rating : Rating.values()) {
+                byRating.add(new ConcurrentSkipListSet<>(BY_ID));
+            }
+        }
+
+        void add(ProductStore.Entry entry, Rating rating) {
+            if (byRating.get(rating.ordinal()).add(entry)) {
+                size.incrementAndGet();
+            }
+        }
+
+        /**
+         * @return {@code true} if the entry was there
+         */
+        boolean remove(ProductStore.Entry entry, Rating rating) {
+            if (byRating.get(rating.ordinal()).remove(entry)) {
+                size.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        boolean isEmpty() {
+            return size.get() == 0;
+        }
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+        private final Iterator<ProductStore.Entry> entries;
+        private ProductStore.Entry head;
+
+        Cursor(Iterator<ProductStore.Entry> entries) {
+            this.entries = entries;
+        }
+
+        boolean advance() {
+            head = entries.hasNext() ? entries.next() : null;
+            return head != null;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return Integer.compare(head.getId(), other.head.getId());
+        }
+    }
+
+    /**
+     * Keeps the best {@code wanted} matches in a heap ordered worst first.
+     * Once {@code wanted} matches have every search word that can match in full, nothing offered
+     * later in rank order can improve the page, and the matches are complete.
+     */
+    private static final class Matches {
+        private final List<String> terms;
+        private final ProductQuery query;
+        private final Comparator<Match> ranking;
+        private final int wanted;
+        private final int bestExact;
+        private final PriorityQueue<Match> heap;
+        private final Set<Integer> seen = new HashSet<>();
+        private int best;
+
+        Matches(List<String> terms, ProductQuery query, Comparator<Product> order, int wanted, int bestExact) {
+            this.terms = terms;
+            this.query = query;
+            this.wanted = wanted;
+            this.bestExact = bestExact;
+            ranking = Comparator.comparingInt((Match match) -> match.exact).reversed()
+                    .thenComparing(match -> match.product, order);
+            heap = new PriorityQueue<>(Math.min(wanted, 1024) + 1, ranking.reversed());
+        }
+
+        void offer(ProductStore.Entry entry) {
+            Product product = entry.getProduct();
+            int exact = exactMatches(words(product.getName()));
+            // an entry re-rated during the search can turn up twice
+            if (exact < 0 || !query.test(product) || !seen.add(product.getId())) {
+                return;
+            }
+            if (exact == bestExact) {
+                best++;
+            }
+            Match match = new Match(product, exact);
+            if (heap.size() < wanted) {
+                heap.add(match);
+            } else if (ranking.compare(match, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(match);
+            }
+        }
+
+        boolean isComplete() {
+            return best >= wanted;
+        }
+
+        /**
+         * @return how many terms equal a word of the name, or {@code -1} if a term is not even the prefix of one
+         */
+        private int exactMatches(List<String> words) {
+            int exact = 0;
+            for (String term : terms) {
+                int match = -1;
+                for (String word : words) {
+                    if (word.equals(term)) {
+                        match = 1;
+                        break;
+                    }
+                    if (word.startsWith(term)) {
+                        match = 0;
+                    }
+                }
+                if (match < 0) {
+                    return -1;
+                }
+                exact += match;
+            }
+            return exact;
+        }
+
+        List<Product> page(int offset) {
+            List<Match> ranked = new ArrayList<>(heap);
+            ranked.sort(ranking);
+            List<Product> found = new ArrayList<>(Math.max(ranked.size() - offset, 0));
+            for (int i = offset; i < ranked.size(); i++) {
+                found.add(ranked.get(i).product);
+            }
+            return found;
+        }
+    }
+
+    private static final class Match {
+        private final Product product;
+        private final int exact;
+
+        Match(Product product, int exact) {
+            this.product = product;
+            this.exact = exact;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package labs.pm.data;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code Names} interns product names across every catalog in the JVM.
+ * Stores usually sell the same products, so catalogs loaded side by side share one {@code String}
+ * per distinct name instead of holding a copy per store.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class Names {
+    private static final Map<String, String> names = new ConcurrentHashMap<>();
+
+    private Names() {
+    }
+
+    static String intern(String name) {
+        String existing = names.putIfAbsent(name, name);
+        return (existing == null) ? name : existing;
+    }
+}
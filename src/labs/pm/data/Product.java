@@ -34,6 +34,14 @@ public abstract class Product implements Rateable, Serializable {
      * @return a {@link java.math.BigDecimal} value of the discount
      */
     public BigDecimal getDiscount(){
+        return getFullDiscount();
+    }
+
+    /**
+     * The discount before any time based condition of a subclass is applied
+     * @return a {@link java.math.BigDecimal} value of the discount, rounded to cents
+     */
+    BigDecimal getFullDiscount(){
         return price.multiply(DISCOUNT_RATE).setScale(2, RoundingMode.HALF_UP);
     }
 
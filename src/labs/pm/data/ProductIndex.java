@@ -0,0 +1,256 @@
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@code ProductIndex} keeps secondary indexes over the catalog's entries and answers {@link ProductQuery}s from them.
+ * <p>
+ * Entries are indexed by rating, by price, by type and, for food, by best before date.
+ * Drinks are best before today, so they are kept out of the date index and matched against the query date range as a group.
+ * The indexes are concurrent sets and skip lists: updates never block readers and a rating change only moves
+ * one entry between two sets. Like iteration over the store, queries are weakly consistent, every candidate
+ * is re-checked against the product it holds now, so an entry caught between two rating sets is never returned twice.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class ProductIndex {
+    private final List<Set<ProductStore.Entry>> byRating = new ArrayList<>();
+    private final NavigableMap<BigDecimal, Set<ProductStore.Entry>> byPrice = new ConcurrentSkipListMap<>();
+    private final NavigableMap<LocalDate, Set<ProductStore.Entry>> foodByBestBefore = new ConcurrentSkipListMap<>();
+    private final Set<ProductStore.Entry> food = ConcurrentHashMap.newKeySet();
+    private final Set<ProductStore.Entry> drinks = ConcurrentHashMap.newKeySet();
+    private final Supplier<Stream<ProductStore.Entry>> all;
+
+    /**
+     * @param all every entry in the store, scanned when a query has no indexed criteria
+     */
+    ProductIndex(Supplier<Stream<ProductStore.Entry>> all) {
+        this.all = all;
+        for (Rating rating : Rating.values()) {
+            byRating.add(ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    void add(ProductStore.Entry entry, Product product) {
+        byRating.get(product.getRating().ordinal()).add(entry);
+        byPrice.computeIfAbsent(product.getPrice(), price -> ConcurrentHashMap.newKeySet()).add(entry);
+        if (product instanceof Food) {
+            food.add(entry);
+            foodByBestBefore.computeIfAbsent(product.getBestBefore(), date -> ConcurrentHashMap.newKeySet()).add(entry);
+        } else {
+            drinks.add(entry);
+        }
+    }
+
+    void remove(ProductStore.Entry entry, Product product) {
+        byRating.get(product.getRating().ordinal()).remove(entry);
+        removeFrom(byPrice, product.getPrice(), entry);
+        if (product instanceof Food) {
+            food.remove(entry);
+            removeFrom(foodByBestBefore, product.getBestBefore(), entry);
+        } else {
+            drinks.remove(entry);
+        }
+    }
+
+    /**
+     * Moves the entry to the index slots of its new product, only the attributes that changed are touched.
+     * The new product is added before the old one is removed so a concurrent query always finds the entry.
+     */
+    void replace(ProductStore.Entry entry, Product previous, Product product) {
+        if (previous.getClass() != product.getClass()
+                || !previous.getBestBefore().equals(product.getBestBefore())
+                || previous.getPrice().compareTo(product.getPrice()) != 0) {
+            add(entry, product);
+            remove(entry, previous);
+        } else if (previous.getRating() != product.getRating()) {
+            byRating.get(product.getRating().ordinal()).add(entry);
+            byRating.get(previous.getRating().ordinal()).remove(entry);
+        }
+    }
+
+    private static <K> void removeFrom(NavigableMap<K, Set<ProductStore.Entry>> index, K key,
+                                       ProductStore.Entry entry) {
+        Set<ProductStore.Entry> entries = index.get(key);
+        if (entries != null) {
+            entries.remove(entry);
+            // a concurrent add may have refilled the set, computeIfPresent keeps the check and the removal atomic
+            index.computeIfPresent(key, (k, set) -> set.isEmpty() ? null : set);
+        }
+    }
+
+    /**
+     * @return the requested page of matching products
+     */
+    List<Product> query(ProductQuery query) {
+        int wanted = query.getWanted();
+        if (wanted == 0) {
+            return List.of();
+        }
+        Comparator<Product> order = query.getOrder();
+        List<Product> found;
+        if (order == ProductQuery.BY_PRICE || order == ProductQuery.BY_PRICE_DESCENDING) {
+            found = walk(priceRange(query, order == ProductQuery.BY_PRICE).values(), query, wanted);
+        } else if (order == ProductQuery.BY_RATING || order == ProductQuery.BY_RATING_ASCENDING) {
+            List<Set<ProductStore.Entry>> buckets = ratingBuckets(query);
+            if (order == ProductQuery.BY_RATING) {
+                Collections.reverse(buckets);
+            }
+            found = walk(buckets, query, wanted);
+        } else {
+            Stream<Product> matching = candidates(query)
+                    .map(ProductStore.Entry::getProduct)
+                    .filter(query::test);
+            found = (order == null)
+                    ? matching.limit(wanted).collect(Collectors.toList())
+                    : top(matching, order, wanted);
+        }
+        int from = Math.min(query.getOffset(), found.size());
+        return found.subList(from, found.size());
+    }
+
+    /**
+     * Collects matches from groups that are already in query order, ordering only within a group, e.g. products
+     * with the same price, and stopping as soon as the page is full.
+     */
+    private static List<Product> walk(Collection<Set<ProductStore.Entry>> groups, ProductQuery query, int wanted) {
+        List<Product> found = new ArrayList<>();
+        List<Product> group = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        for (Set<ProductStore.Entry> entries : groups) {
+            group.clear();
+            for (ProductStore.Entry entry : entries) {
+                Product product = entry.getProduct();
+                if (query.test(product)) {
+                    group.add(product);
+                }
+            }
+            group.sort(query.getOrder());
+            for (Product product : group) {
+                if (found.size() == wanted) {
+                    return found;
+                }
+                // an entry re-rated during the walk can turn up twice, or in a group it no longer sorts into
+                boolean inOrder = found.isEmpty() || query.getOrder().compare(found.get(found.size() - 1), product) < 0;
+                if (inOrder && seen.add(product.getId())) {
+                    found.add(product);
+                }
+            }
+            if (found.size() == wanted) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Keeps the best {@code wanted} products in a heap ordered worst first, so each candidate costs at most
+     * {@code O(log wanted)} and the full match set is never held or sorted.
+     */
+    private static List<Product> top(Stream<Product> matching, Comparator<Product> order, int wanted) {
+        if (wanted == Integer.MAX_VALUE) {
+            return matching.sorted(order).collect(Collectors.toList());
+        }
+        PriorityQueue<Product> heap = new PriorityQueue<>(Math.min(wanted, 1024) + 1, order.reversed());
+        matching.forEach(product -> {
+            if (heap.size() < wanted) {
+                heap.add(product);
+            } else if (order.compare(product, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(product);
+            }
+        });
+        List<Product> best = new ArrayList<>(heap);
+        best.sort(order);
+        return best;
+    }
+
+    /**
+     * Picks the smallest candidate set among the indexed criteria of the query, or the whole catalog if there are none.
+     */
+    private Stream<ProductStore.Entry> candidates(ProductQuery query) {
+        List<Collection<Set<ProductStore.Entry>>> options = new ArrayList<>();
+        if (query.getRatings() != null) {
+            options.add(ratingBuckets(query));
+        }
+        if (query.getType() != null) {
+            options.add(List.of(query.getType() == ProductQuery.Type.FOOD ? food : drinks));
+        }
+        if (query.hasPriceRange()) {
+            options.add(priceRange(query, true).values());
+        }
+        if (query.hasBestBeforeRange()) {
+            List<Set<ProductStore.Entry>> dates = new ArrayList<>(bestBeforeRange(query).values());
+            if (query.getType() != ProductQuery.Type.FOOD) {
+                dates.add(drinks);
+            }
+            options.add(dates);
+        }
+        if (options.isEmpty()) {
+            return all.get();
+        }
+        Collection<Set<ProductStore.Entry>> best = null;
+        long bestSize = Long.MAX_VALUE;
+        for (Collection<Set<ProductStore.Entry>> option : options) {
+            long size = 0;
+            for (Set<ProductStore.Entry> entries : option) {
+                size += entries.size();
+                if (size >= bestSize) {
+                    break;
+                }
+            }
+            if (size < bestSize) {
+                best = option;
+                bestSize = size;
+            }
+        }
+        return best.stream().flatMap(Set::stream);
+    }
+
+    private List<Set<ProductStore.Entry>> ratingBuckets(ProductQuery query) {
+        List<Set<ProductStore.Entry>> buckets = new ArrayList<>();
+        for (Rating rating : Rating.values()) {
+            if (query.getRatings() == null || query.getRatings().contains(rating)) {
+                buckets.add(byRating.get(rating.ordinal()));
+            }
+        }
+        return buckets;
+    }
+
+    private NavigableMap<BigDecimal, Set<ProductStore.Entry>> priceRange(ProductQuery query, boolean ascending) {
+        NavigableMap<BigDecimal, Set<ProductStore.Entry>> range = byPrice;
+        if (query.getMinPrice() != null) {
+            range = range.tailMap(query.getMinPrice(), true);
+        }
+        if (query.getMaxPrice() != null) {
+            range = range.headMap(query.getMaxPrice(), true);
+        }
+        return ascending ? range : range.descendingMap();
+    }
+
+    private NavigableMap<LocalDate, Set<ProductStore.Entry>> bestBeforeRange(ProductQuery query) {
+        NavigableMap<LocalDate, Set<ProductStore.Entry>> range = foodByBestBefore;
+        if (query.getBestBeforeFrom() != null) {
+            range = range.tailMap(query.getBestBeforeFrom(), true);
+        }
+        if (query.getBestBeforeTo() != null) {
+            range = range.headMap(query.getBestBeforeTo(), true);
+        }
+        return range;
+    }
+}
@@ -1,58 +1,149 @@
 package labs.pm.data;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.text.MessageFormat;
-import java.text.NumberFormat;
 import java.text.ParseException;
-import java.time.Instant;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-import java.time.format.FormatStyle;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
-public class ProductManager {
+/**
+ * {@code ProductManager} runs one catalog: its products and reviews, the journal that keeps new reviews
+ * and the reports written from them.
+ * <p>
+ * {@link #getInstance()} returns the default catalog, configured from {@code config.properties}.
+ * Further isolated catalogs, e.g. one per store, are created with {@link #builder()}, each with its own folders,
+ * and are usually kept in a {@link CatalogRegistry}. Catalogs share what does not belong to a single store:
+ * the compiled locale templates, the record parsers, interned product names and the maintenance thread.
+ * Rendered header lines are cached per catalog.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public class ProductManager implements AutoCloseable {
     private static Logger log = Logger.getLogger(ProductManager.class.getName());
-    private Map<Product, List<Review>> products = new HashMap<>();
-    private static final Map<String, ResourceFormatter> formatters =
+    private final CatalogMetrics metrics = new CatalogMetrics();
+    private volatile ProductStore products = new ProductStore();
+    private volatile LoadReport loadReport;
+    private static final Map<String, ResourceFormatter> localeFormatters =
             Map.of("en-GB", new ResourceFormatter(Locale.UK),
                     "en-US", new ResourceFormatter(Locale.US),
                     "fr-FR", new ResourceFormatter(Locale.FRANCE),
                     "ru-RU", new ResourceFormatter(new Locale("ru", "RU")),
                     "zh-CN", new ResourceFormatter(Locale.CHINA));
-    private final ResourceBundle config = ResourceBundle.getBundle("labs.pm.data.config");
-    private final MessageFormat reviewFormat = new MessageFormat(config.getString("review.data.format"));
-    private final MessageFormat productFormat = new MessageFormat(config.getString("product.data.format"));
+    private static final ResourceBundle config = ResourceBundle.getBundle("labs.pm.data.config");
+    private static final RecordParser reviewParser = new RecordParser(config.getString("review.data.format"));
+    private static final RecordParser productParser = new RecordParser(config.getString("product.data.format"));
+    private static final int IMPORT_BATCH = 4096;
+    private static final int REPORT_PAGE = 256;
+    private static final int REPORT_LINE_ESTIMATE = 64;
+    private static final String DEFAULT_LANGUAGE = "en-GB";
+    private static final Set<Rating> ALL_RATINGS = Collections.unmodifiableSet(EnumSet.allOf(Rating.class));
+    private static final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "product-manager-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, ResourceFormatter> formatters = catalogFormatters();
+    private final LongAdder productParseErrors = new LongAdder();
+    private final LongAdder reviewParseErrors = new LongAdder();
 
-    private final Path reportsFolder = Path.of(config.getString("reports.folder"));
-    private final Path dataFolder = Path.of(config.getString("data.folder"));
-    private final Path tempFolder = Path.of(config.getString("temp.folder"));
-    private static final ProductManager pm = new ProductManager();
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-    private final Lock writeLock = lock.writeLock();
-    private final Lock readLock = lock.readLock();
+    private final Path reportsFolder;
+    private volatile boolean reportsFolderReady;
+    private final Path dataFolder;
+    private final Path tempFolder;
+    private final Path journalFolder;
+    private final int loadThreads;
+    private final ReportService reportService;
+    private final ReportCache reportCache;
+    private ReviewJournal journal;
+    private JournalCompactor compactor;
+    private ReviewTier reviewTier;
+    private ScheduledFuture<?> compaction;
+    private DataFolderWatcher watcher;
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private final Map<Path, FileTime> compactedFiles = new ConcurrentHashMap<>();
+    private final List<ScheduledFuture<?>> exporters = new CopyOnWriteArrayList<>();
+    private final ObjectName mbeanName;
 
-    private ProductManager() {
-        loadAllData();
+    private ProductManager(Builder builder) {
+        dataFolder = builder.dataFolder;
+        reportsFolder = builder.reportsFolder;
+        tempFolder = builder.tempFolder;
+        journalFolder = builder.journalFolder;
+        loadThreads = builder.loadThreads;
+        reportService = new ReportService(builder.reportThreadMode, Integer.parseInt(config.getString("report.threads")),
+                Integer.parseInt(config.getString("report.queue.capacity")));
+        reportCache = new ReportCache(builder.reportCacheBytes);
+        mbeanName = registerMBean(builder.name);
+        products.setLockTimer(metrics.getLocks());
+        openJournal();
+        if (builder.mappedReviews) {
+            openReviewTier(builder.hotProducts);
+        }
+        if (!builder.loadSnapshot || !restoreData()) {
+            loadAllData();
+            replayJournal();
+            tierReviews();
+        }
+        if (journal != null) {
+            long interval = Long.parseLong(config.getString("journal.compact.interval.ms"));
+            compaction = maintenance.scheduleWithFixedDelay(this::compactJournal, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        if (builder.watchData) {
+            watchData();
+        }
     }
 
     public static ProductManager getInstance(){
-        return pm;
+        return Holder.pm;
+    }
+
+    // created on first use rather than in ProductManager's static initializer,
+    // so loader threads can touch ProductManager statics without waiting on its class initialization
+    private static class Holder {
+        private static final ProductManager pm = builder().build();
+    }
+
+    /**
+     * @return a builder for a new catalog, every setting starts out as configured in {@code config.properties}
+     */
+    public static Builder builder() {
+        return new Builder();
     }
 
     public static Set<String> getSupportedLocales() {
-        return formatters.keySet();
+        return localeFormatters.keySet();
+    }
+
+    // shares the compiled templates of every locale, with header line caches that belong to this catalog alone
+    private static Map<String, ResourceFormatter> catalogFormatters() {
+        Map<String, ResourceFormatter> own = new HashMap<>();
+        localeFormatters.forEach((tag, formatter) -> own.put(tag, new ResourceFormatter(formatter)));
+        return Map.copyOf(own);
     }
 
 //    public void changeLocale(String languageTag) {
@@ -62,21 +153,26 @@ public class ProductManager {
     public Product parseProduct(String text){
         Product product = null;
         try {
-            Object[] values = productFormat.parse(text);
-            int id = Integer.parseInt((String) values[1]);
-            String name = (String) values[2];
-            BigDecimal price = BigDecimal.valueOf(Double.parseDouble((String) values[3]));
-            Rating rating = Rateable.convert(Integer.parseInt((String) values[4]));
-            switch ((String) values[0]) {
-                case "D":
+            RecordParser.Fields values = productParser.parse(text);
+            int id = values.intValue(1);
+            String name = Names.intern(values.text(2));
+            // prices are money, kept in whole cents like CompactCatalog keeps them
+            BigDecimal price = values.decimal(3).setScale(2, RoundingMode.HALF_UP);
+            Rating rating = Rateable.convert(values.intValue(4));
+            switch (values.charValue(0)) {
+                case 'D':
                     product = new Drink(id, name, price, rating);
                     break;
-                case "F":
-                    LocalDate bestBefore = LocalDate.parse((String) values[5]);
+                case 'F':
+                    LocalDate bestBefore = values.date(5);
                     product = new Food(id, name, price, rating, bestBefore);
+                    break;
+                default:
+                    throw new ParseException("Unknown product type", 0);
             }
-        } catch (ParseException | NumberFormatException | DateTimeParseException e) {
-            log.log(Level.WARNING,"Error parsing product: " + text);
+        } catch (ParseException e) {
+            productParseErrors.increment();
+            log.log(Level.FINE, e, () -> "Error parsing product: " + text);
         }
         return product;
     }
@@ -84,14 +180,11 @@ public class ProductManager {
     public Product createProduct(int id, String name, BigDecimal price, Rating rating, LocalDate bestBefore) {
         Product product = null;
         try{
-            writeLock.lock();
             product = new Food(id, name, price, rating, bestBefore);
-            products.putIfAbsent(product, new ArrayList<>());
+            products.putIfAbsent(new ProductStore.Entry(product));
         } catch (Exception e){
-            log.info("Error adding product {0}"+ e.getMessage());
+            log.log(Level.INFO, "Error adding product {0}", e.getMessage());
             return null;
-        } finally {
-            writeLock.unlock();
         }
 
         return product;
@@ -100,247 +193,1259 @@ public class ProductManager {
     public Product createProduct(int id, String name, BigDecimal price, Rating rating) {
         Product product = null;
         try{
-            writeLock.lock();
             product = new Drink(id, name, price, rating);
-            products.putIfAbsent(product, new ArrayList<>());
+            products.putIfAbsent(new ProductStore.Entry(product));
         } catch (Exception e){
-            log.info("Error adding product {0}"+ e.getMessage());
+            log.log(Level.INFO, "Error adding product {0}", e.getMessage());
             return null;
-        } finally {
-            writeLock.unlock();
         }
 
         return product;
     }
 
     public Product findProduct(int id) throws ProductManagerException {
+        long start = CatalogMetrics.start();
         try {
-            readLock.lock();
-            return products.keySet().stream()
-                    .filter(product -> product.getId() == id)
-                    .findFirst().orElseThrow(() ->new ProductManagerException("Product with id " + id + "does not exist"));
-        }finally {
-            readLock.unlock();
+            return findEntry(id).getProduct();
+        } catch (ProductManagerException e) {
+            metrics.failed(MetricsSnapshot.Operation.FIND);
+            throw e;
+        } finally {
+            metrics.record(MetricsSnapshot.Operation.FIND, start);
+        }
+    }
+
+    private ProductStore.Entry findEntry(int id) throws ProductManagerException {
+        ProductStore.Entry entry = products.get(id);
+        if (entry == null) {
+            throw new ProductManagerException("Product with id " + id + "does not exist");
         }
+        return entry;
+    }
+
+    /**
+     * Locks the current entry of the product, looking it up again if a reload retired it in the meantime.
+     * @return the locked entry, or {@code null} if there is no such product
+     */
+    private ProductStore.Entry lockEntry(int id) {
+        for (ProductStore.Entry entry = products.get(id); entry != null; entry = products.get(id)) {
+            entry.lock();
+            if (!entry.isRetired()) {
+                return entry;
+            }
+            entry.unlock();
+        }
+        return null;
+    }
+
+    public RatingSummary getRatingSummary(int id) throws ProductManagerException {
+        return findEntry(id).withLock(entry -> entry.getRatings().snapshot());
     }
 
     public void printProductReport(int id, String languageTag, String client) {
         try {
-            readLock.lock();
-            Product product = findProduct(id);
-            printProductReport(product, languageTag, client);
+            printProductReport(findEntry(id), languageTag, client);
         }catch (ProductManagerException | IOException e){
             log.log(Level.INFO, e.getMessage());
-        }finally {
-            readLock.unlock();
         }
     }
 
     public Review parseReview(String text){
         Review review = null;
         try {
-            Object[] values = reviewFormat.parse(text);
-            review = new Review(Rateable.convert(Integer.parseInt((String) values[0])), (String) values[1]);
-        } catch (ParseException | NumberFormatException e) {
-            log.log(Level.WARNING,"Error parsing review: " + text);
+            RecordParser.Fields values = reviewParser.parse(text);
+            review = new Review(Rateable.convert(values.intValue(0)), values.text(1));
+        } catch (ParseException e) {
+            reviewParseErrors.increment();
+            log.log(Level.FINE, e, () -> "Error parsing review: " + text);
         }
         return review;
     }
 
     public Product reviewProduct(int id, Rating rating, String comments) {
+        long start = CatalogMetrics.start();
         try {
-            writeLock.lock();
-            return reviewProduct(findProduct(id), rating, comments);
+            ProductStore.Entry entry = lockEntry(id);
+            if (entry == null) {
+                throw new ProductManagerException("Product with id " + id + "does not exist");
+            }
+            Product product;
+            ReviewJournal.Write write = null;
+            try {
+                try {
+                    product = reviewProduct(entry, rating, comments);
+                } catch (IOException e) {
+                    metrics.failed(MetricsSnapshot.Operation.REVIEW);
+                    log.log(Level.SEVERE, "Error archiving review of product " + id, e);
+                    return null;
+                }
+                if (journal != null) {
+                    // appended under the entry lock so the journal sees reviews of a product in the order they were applied
+                    write = journal.append(id, rating, comments);
+                    if (write != null) {
+                        entry.setJournalSequence(write.getSequence());
+                        entry.journaled(1);
+                    }
+                }
+            } finally {
+                entry.unlock();
+            }
+            if (write != null && journal.getPolicy() == ReviewJournal.SyncPolicy.ALWAYS) {
+                awaitJournal(write, id);
+            }
+            return product;
         } catch (ProductManagerException e) {
+            metrics.failed(MetricsSnapshot.Operation.REVIEW);
             log.log(Level.INFO, e.getMessage());
         } finally {
-            writeLock.unlock();
+            metrics.record(MetricsSnapshot.Operation.REVIEW, start);
         }
         return null;
     }
 
-    private Product reviewProduct(Product product, Rating rating, String comments) {
-        List<Review> reviews = products.get(product);
-        reviews.add(new Review(rating, comments));
-        product = product.applyRating(
-                Rateable.convert(
-                        (int) Math.round(
-                                reviews.stream()
-                                        .mapToInt(review -> review.getRating().ordinal())
-                                        .average()
-                                        .orElse(0))));
-        products.remove(product);
-        products.put(product, reviews);
+    private void awaitJournal(ReviewJournal.Write write, int id) {
+        try {
+            write.getDone().join();
+        } catch (CompletionException | CancellationException e) {
+            log.log(Level.SEVERE, "Review of product " + id + " was applied but could not be journaled", e);
+        }
+    }
+
+    // must be called while holding the entry lock
+    private Product reviewProduct(ProductStore.Entry entry, Rating rating, String comments) throws IOException {
+        entry.addReview(new Review(rating, comments));
+        products.reviewsAdded(1);
+        entry.getRatings().add(rating);
+        return rerate(entry);
+    }
+
+    // must be called while holding the entry lock
+    private Product rerate(ProductStore.Entry entry) {
+        Product product = entry.getProduct().applyRating(entry.getRatings().getRating());
+        products.replace(entry, product);
+        formatters.values().forEach(formatter -> formatter.invalidate(product.getId()));
         return product;
     }
 
-    private void printProductReport(Product product, String languageTag, String client) throws IOException {
-        ResourceFormatter formatter
-                = formatters.getOrDefault(languageTag, formatters.get("en-GB"));
-        List<Review> reviews = products.get(product);
-        Collections.sort(reviews);
-        Files.createDirectories(reportsFolder);
-        Path productFile = reportsFolder.resolve(MessageFormat.format(config.getString("report.file"), product.getId(), client));
-        // Lab suggests "UTF-8" as a string. However, there is a StandardCharsets class that has several CharSets registered. Saver to use that.
-        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(productFile, StandardOpenOption.CREATE), StandardCharsets.UTF_8))) {
-            out.append(formatter.formatProduct(product)).append(System.lineSeparator());
-            if (reviews.isEmpty()) {
-                out.append(formatter.getString("no.reviews"));
+    /**
+     * Imports a {@code reviews{id}.csv} file, or every such file in a folder, taking the product id from the file name.
+     * Reviews are applied in batches, each under a single acquisition of its product's lock with one rating update,
+     * so a feed of millions of rows costs far less than calling {@link #reviewProduct(int, Rating, String)} per row.
+     * Unparseable rows and rows for unknown products are rejected and counted, the rest are applied and journaled.
+     * @throws IOException if the file or folder cannot be read; batches applied before the failure stay applied
+     */
+    public ImportReport importReviews(Path path) throws IOException {
+        long start = CatalogMetrics.start();
+        ImportReport.Tally tally = new ImportReport.Tally();
+        try {
+            List<Path> files;
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> list = Files.list(path)) {
+                    files = list.filter(file -> reviewsFileId(file) != null).sorted().collect(Collectors.toList());
+                }
             } else {
-                out.append(reviews.stream()
-                        .map(review -> formatter.formatReview(review) + System.lineSeparator())
-                        .collect(Collectors.joining()));
+                files = List.of(path);
             }
+            for (Path file : files) {
+                Integer id = reviewsFileId(file);
+                if (id == null) {
+                    tally.rejected(file.toString(), 1, "Not a reviews file name");
+                    continue;
+                }
+                try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+                    importLines(id, file.toString(), lines, tally);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            metrics.failed(MetricsSnapshot.Operation.IMPORT);
+            throw e;
+        } finally {
+            metrics.record(MetricsSnapshot.Operation.IMPORT, start);
         }
+        return tally.toReport();
     }
 
-    public void printProducts(Predicate<Product> filter, Comparator<Product> sorter, String languageTag) {
+    /**
+     * Imports the reviews of one product from lines in the review file format, see {@link #importReviews(Path)}.
+     */
+    public ImportReport importReviews(int id, Stream<String> lines) {
+        long start = CatalogMetrics.start();
+        ImportReport.Tally tally = new ImportReport.Tally();
+        importLines(id, "product " + id, lines, tally);
+        metrics.record(MetricsSnapshot.Operation.IMPORT, start);
+        return tally.toReport();
+    }
+
+    /**
+     * Imports reviews grouped by product id, see {@link #importReviews(Path)}.
+     */
+    public ImportReport importReviews(Map<Integer, ? extends Collection<Review>> reviews) {
+        long start = CatalogMetrics.start();
+        ImportReport.Tally tally = new ImportReport.Tally();
+        reviews.forEach((id, group) -> {
+            List<Review> batch = new ArrayList<>(Math.min(group.size(), IMPORT_BATCH));
+            for (Review review : group) {
+                batch.add(review);
+                if (batch.size() == IMPORT_BATCH) {
+                    applyBatch(id, "product " + id, batch, tally);
+                    batch.clear();
+                }
+            }
+            applyBatch(id, "product " + id, batch, tally);
+        });
+        metrics.record(MetricsSnapshot.Operation.IMPORT, start);
+        return tally.toReport();
+    }
+
+    private void importLines(int id, String source, Stream<String> lines, ImportReport.Tally tally) {
+        List<Review> batch = new ArrayList<>();
+        long unparseable = 0;
+        for (Iterator<String> it = lines.iterator(); it.hasNext(); ) {
+            Review review = parseReview(it.next());
+            if (review == null) {
+                unparseable++;
+                continue;
+            }
+            batch.add(review);
+            if (batch.size() == IMPORT_BATCH) {
+                applyBatch(id, source, batch, tally);
+                batch.clear();
+            }
+        }
+        applyBatch(id, source, batch, tally);
+        tally.rejected(source, unparseable, "Unparseable review lines");
+    }
+
+    /**
+     * Applies a batch of reviews under one acquisition of the entry lock and rerates the product once.
+     * The batch is journaled as consecutive records before the lock is released, as single reviews are.
+     */
+    private void applyBatch(int id, String source, List<Review> batch, ImportReport.Tally tally) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ProductStore.Entry entry = lockEntry(id);
+        if (entry == null) {
+            tally.rejected(source, batch.size(), "Product with id " + id + " does not exist");
+            return;
+        }
+        int applied = 0;
+        ReviewJournal.Write write = null;
         try {
-            readLock.lock();
-            ResourceFormatter formatter = formatters.getOrDefault(languageTag, formatters.get("en-GB"));
-            StringBuilder txt = new StringBuilder();
-            products.keySet()
-                    .stream()
-                    .sorted(sorter)
-                    .filter(filter)
-                    .forEach(product -> {
-                        txt.append(formatter.formatProduct(product)).append('\n');
-                    });
-            System.out.println(txt);
+            for (Review review : batch) {
+                try {
+                    entry.addReview(review);
+                } catch (IOException e) {
+                    log.log(Level.SEVERE, "Error archiving reviews of product " + id, e);
+                    tally.rejected(source, batch.size() - applied, "Error archiving reviews: " + e.getMessage());
+                    break;
+                }
+                entry.getRatings().add(review.getRating());
+                applied++;
+            }
+            if (applied > 0) {
+                products.reviewsAdded(applied);
+                rerate(entry);
+                if (journal != null) {
+                    write = journal.appendAll(id, batch.subList(0, applied));
+                    if (write != null) {
+                        entry.setJournalSequence(write.getSequence());
+                        entry.journaled(applied);
+                    }
+                }
+            }
         } finally {
-            readLock.unlock();
+            entry.unlock();
         }
+        tally.applied(id, applied);
+        if (write != null && journal.getPolicy() == ReviewJournal.SyncPolicy.ALWAYS) {
+            awaitJournal(write, id);
+        }
+    }
 
+    private static Integer reviewsFileId(Path file) {
+        return fileId("reviews.data.file", file);
     }
 
-    public Map<String, String> getDiscounts(String languageTag){
-        ResourceFormatter formatter = formatters.getOrDefault(languageTag, formatters.get("en-GB"));
+    // the id in a file name made from the configured pattern, or null if the name does not fit it
+    private static Integer fileId(String patternKey, Path file) {
+        String pattern = config.getString(patternKey);
+        int slot = pattern.indexOf("{0}");
+        String prefix = pattern.substring(0, slot);
+        String suffix = pattern.substring(slot + 3);
+        String name = file.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix) || name.length() <= prefix.length() + suffix.length()) {
+            return null;
+        }
         try {
-            readLock.lock();
-            return products.keySet()
-                    .stream()
-                    .collect(
-                            Collectors.groupingBy(
-                                    product -> product.getRating().getStars(),
-                                    Collectors.collectingAndThen(
-                                            Collectors.summingDouble(
-                                                    product -> product.getDiscount().doubleValue()),
-                                            discount -> formatter.moneyFormat.format(discount))));
-        } finally {
-            readLock.unlock();
+            return Integer.valueOf(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return null;
         }
+    }
 
+    /**
+     * Queues the report of one product for the report writer threads and returns straight away.
+     * Requests for the same product, locale and client share one job while it is queued, not once it is running.
+     * @return the report file once it is written; fails with a {@link RejectedExecutionException} if the queue is full
+     */
+    public CompletableFuture<Path> submitProductReport(int id, String languageTag, String client) {
+        try {
+            findEntry(id);
+        } catch (ProductManagerException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // looked up again when the job runs, a reload while it was queued may have replaced the entry
+        return reportService.submit(List.of(id, languageTag, client),
+                () -> printProductReport(findEntry(id), languageTag, client));
     }
 
-    private List<Review> loadReviews(Product product){
-        List<Review> reviews = null;
-        Path file = dataFolder.resolve(MessageFormat.format(config.getString("reviews.data.file"), product.getId()));
-        if (Files.notExists(file)) {
-            reviews = new ArrayList<>();
-        } else {
+    private Path printProductReport(ProductStore.Entry entry, String languageTag, String client) throws IOException {
+        if (!reportsFolderReady) {
+            Files.createDirectories(reportsFolder);
+            reportsFolderReady = true;
+        }
+        Path productFile = reportsFolder.resolve(MessageFormat.format(config.getString("report.file"), entry.getId(), client));
+        // written next to the report and renamed over it, a reader never sees a partial report or the tail of an old one;
+        // opened rather than made with createTempFile, which is owner-only, so the report keeps the umask's permissions
+        Path part;
+        FileChannel out;
+        while (true) {
+            part = reportsFolder.resolve(productFile.getFileName() + "." + Long.toUnsignedString(
+                    ThreadLocalRandom.current().nextLong(), Character.MAX_RADIX) + ".part");
             try {
-                //  Alternative for StandardCharsets.UTF_8: Charset.forName("UTF-8"). However, again this relies on a hardcoded string.
-                reviews = Files.lines(file, StandardCharsets.UTF_8)
-                        .map(this::parseReview)
-                        .filter(review -> review != null)
-                        .collect(Collectors.toList());
-            } catch (IOException ex) {
-                log.log(Level.WARNING, "Error loading reviews " + ex.getMessage());
+                out = FileChannel.open(part, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // another writer drew the same name, draw again
+            }
+        }
+        try {
+            try (FileChannel channel = out) {
+                writeProductReport(entry, languageTag, channel);
+            }
+            Files.move(part, productFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+        return productFile;
+    }
+
+    /**
+     * Streams the report of one product, its header line followed by its reviews, to the writer.
+     */
+    public void writeProductReport(int id, String languageTag, Writer out) throws ProductManagerException, IOException {
+        writeProductReport(findEntry(id), languageTag, ReportWriter.of(out));
+    }
+
+    /**
+     * Streams the report of one product as UTF-8 to the stream, which is flushed but not closed.
+     */
+    public void writeProductReport(int id, String languageTag, OutputStream out) throws ProductManagerException, IOException {
+        writeProductReport(findEntry(id), languageTag, Channels.newChannel(out));
+        out.flush();
+    }
+
+    /**
+     * Streams the report of one product as UTF-8 to the channel, which is not closed.
+     */
+    public void writeProductReport(int id, String languageTag, WritableByteChannel out) throws ProductManagerException, IOException {
+        writeProductReport(findEntry(id), languageTag, out);
+    }
+
+    /**
+     * Returns the report of one product as UTF-8, from the report cache if the product has not changed since
+     * it was last rendered in that locale.
+     * @return a read only buffer of the whole report
+     */
+    public ByteBuffer getProductReport(int id, String languageTag) throws ProductManagerException, IOException {
+        ProductStore.Entry entry = findEntry(id);
+        long start = CatalogMetrics.start();
+        try {
+            return ByteBuffer.wrap(renderProductReport(entry, languageTag)).asReadOnlyBuffer();
+        } catch (IOException e) {
+            metrics.failed(MetricsSnapshot.Operation.REPORT);
+            throw e;
+        } finally {
+            metrics.record(MetricsSnapshot.Operation.REPORT, start);
+        }
+    }
+
+    /**
+     * Copies the cached report to the channel, or renders and caches it first. A report too large to cache
+     * is streamed instead of being rendered into memory.
+     */
+    private void writeProductReport(ProductStore.Entry entry, String languageTag, WritableByteChannel out) throws IOException {
+        // a guess from the review count, the rendered size is only known once the report is written
+        if (!reportCache.accepts((entry.getRatings().getCount() + 1L) * REPORT_LINE_ESTIMATE)) {
+            writeProductReport(entry, languageTag, ReportWriter.of(out));
+            return;
+        }
+        long start = CatalogMetrics.start();
+        try {
+            ByteBuffer report = ByteBuffer.wrap(renderProductReport(entry, languageTag));
+            while (report.hasRemaining()) {
+                out.write(report);
+            }
+        } catch (IOException e) {
+            metrics.failed(MetricsSnapshot.Operation.REPORT);
+            throw e;
+        } finally {
+            metrics.record(MetricsSnapshot.Operation.REPORT, start);
+        }
+    }
+
+    /**
+     * @return the cached report if it was rendered from the current version of the entry, otherwise a new rendering,
+     * cached unless the entry changed while it was rendered
+     */
+    private byte[] renderProductReport(ProductStore.Entry entry, String languageTag) throws IOException {
+        String tag = formatters.containsKey(languageTag) ? languageTag : DEFAULT_LANGUAGE;
+        long version = entry.getVersion();
+        LocalDate bestBefore = entry.getProduct().getBestBefore();
+        byte[] report = reportCache.get(entry.getId(), tag, version, bestBefore);
+        if (report == null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                    (entry.getRatings().getCount() + 1) * REPORT_LINE_ESTIMATE);
+            writeProductReport(entry, formatters.get(tag), ReportWriter.of(buffer));
+            report = buffer.toByteArray();
+            if (entry.getVersion() == version) {
+                reportCache.put(entry.getId(), tag, version, bestBefore, report);
+            }
+        }
+        return report;
+    }
+
+    private void writeProductReport(ProductStore.Entry entry, String languageTag, ReportWriter out) throws IOException {
+        long start = CatalogMetrics.start();
+        try {
+            writeProductReport(entry, formatters.getOrDefault(languageTag, formatters.get(DEFAULT_LANGUAGE)), out);
+        } catch (IOException e) {
+            metrics.failed(MetricsSnapshot.Operation.REPORT);
+            throw e;
+        } finally {
+            metrics.record(MetricsSnapshot.Operation.REPORT, start);
+        }
+    }
+
+    /**
+     * Writes the reviews in pages already in report order, holding the entry lock only while a page is copied,
+     * never while formatting or writing. The product and the size of every rating bucket are taken under the first
+     * lock and later pages stop at those sizes, so the report is the entry as it was then: reviews added while
+     * it is written do not appear, as the header's rating does not count them either.
+     */
+    private void writeProductReport(ProductStore.Entry entry, ResourceFormatter formatter, ReportWriter out) throws IOException {
+        List<Review> page = new ArrayList<>(REPORT_PAGE);
+        Product product;
+        int[] bounds;
+        long cursor;
+        entry.lock();
+        try {
+            product = entry.getProduct();
+            bounds = entry.reviewBounds();
+            cursor = entry.pageReviews(ALL_RATINGS, ReviewIndex.START, REPORT_PAGE, bounds, page);
+        } finally {
+            entry.unlock();
+        }
+        out.line(formatter.formatProduct(product));
+        if (page.isEmpty()) {
+            out.write(formatter.getString("no.reviews"));
+        }
+        while (!page.isEmpty()) {
+            for (Review review : page) {
+                out.line(formatter.formatReview(review));
+            }
+            page.clear();
+            if (cursor != ReviewIndex.END) {
+                entry.lock();
+                try {
+                    cursor = entry.pageReviews(ALL_RATINGS, cursor, REPORT_PAGE, bounds, page);
+                } finally {
+                    entry.unlock();
+                }
             }
         }
-        return reviews;
+        out.flush();
+    }
+
+    /**
+     * Returns a page of the reviews of one product in report order, best rating first and oldest first within
+     * a rating, without sorting or copying the rest.
+     * @param offset number of matching reviews to skip
+     * @param limit maximum number of reviews to return
+     * @param ratings the ratings to include, all if none are given
+     * @throws ProductManagerException if there is no such product
+     */
+    public List<Review> findReviews(int id, int offset, int limit, Rating... ratings) throws ProductManagerException {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+        Set<Rating> included = (ratings.length == 0) ? ALL_RATINGS : EnumSet.copyOf(Arrays.asList(ratings));
+        List<Review> page = new ArrayList<>(Math.min(limit, REPORT_PAGE));
+        ProductStore.Entry entry = lockEntry(id);
+        if (entry == null) {
+            throw new ProductManagerException("Product with id " + id + "does not exist");
+        }
+        try {
+            entry.pageReviews(included, entry.skipReviews(included, offset), limit, page);
+        } finally {
+            entry.unlock();
+        }
+        return page;
+    }
+
+    public void printProducts(Predicate<Product> filter, Comparator<Product> sorter, String languageTag) {
+        printProducts(ProductQuery.all().matching(filter).orderBy(sorter), languageTag);
+    }
+
+    public void printProducts(ProductQuery query, String languageTag) {
+        try {
+            ReportWriter out = ReportWriter.of(System.out);
+            writeProducts(query, languageTag, out);
+            out.line("").flush();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Error printing products", e);
+        }
+    }
+
+    /**
+     * Runs the query against the catalog's indexes.
+     * @return the page of matching products, in query order
+     */
+    public List<Product> findProducts(ProductQuery query) {
+        return products.query(query);
+    }
+
+    /**
+     * Searches product names for every word of the text, each matching a whole word of the name or its start,
+     * ignoring case and accents. The query adds criteria such as a rating or price range and picks the page.
+     * @return the page of matching products, those matching more words in full first, then in query order,
+     * best rating first if the query has no order
+     * @see NameIndex
+     */
+    public List<Product> searchProducts(String text, ProductQuery query) {
+        long start = CatalogMetrics.start();
+        try {
+            return products.search(text, query);
+        } finally {
+            metrics.record(MetricsSnapshot.Operation.SEARCH, start);
+        }
+    }
+
+    public List<Product> searchProducts(String text, int limit) {
+        return searchProducts(text, ProductQuery.all().page(0, limit));
+    }
+
+    /**
+     * Streams one page of the product listing to the writer, one line per product.
+     * Products are filtered first, then sorted, then {@code offset} products are skipped and at most {@code limit} written.
+     */
+    public void writeProducts(Predicate<Product> filter, Comparator<Product> sorter, String languageTag,
+                              int offset, int limit, Writer out) throws IOException {
+        writeProducts(ProductQuery.all().matching(filter).orderBy(sorter).page(offset, limit), languageTag,
+                ReportWriter.of(out));
+    }
+
+    /**
+     * Streams one page of the product listing as UTF-8 to the stream, which is flushed but not closed.
+     */
+    public void writeProducts(Predicate<Product> filter, Comparator<Product> sorter, String languageTag,
+                              int offset, int limit, OutputStream out) throws IOException {
+        writeProducts(ProductQuery.all().matching(filter).orderBy(sorter).page(offset, limit), languageTag,
+                ReportWriter.of(out));
+    }
+
+    /**
+     * Streams one page of the product listing as UTF-8 to the channel, which is not closed.
+     */
+    public void writeProducts(Predicate<Product> filter, Comparator<Product> sorter, String languageTag,
+                              int offset, int limit, WritableByteChannel out) throws IOException {
+        writeProducts(ProductQuery.all().matching(filter).orderBy(sorter).page(offset, limit), languageTag,
+                ReportWriter.of(out));
+    }
+
+    /**
+     * Streams the products matching the query to the writer, one line per product.
+     */
+    public void writeProducts(ProductQuery query, String languageTag, Writer out) throws IOException {
+        writeProducts(query, languageTag, ReportWriter.of(out));
+    }
+
+    private void writeProducts(ProductQuery query, String languageTag, ReportWriter out) throws IOException {
+        ResourceFormatter formatter = formatters.getOrDefault(languageTag, formatters.get(DEFAULT_LANGUAGE));
+        for (Product product : products.query(query)) {
+            out.write(formatter.formatProduct(product)).write("\n");
+        }
+        out.flush();
+    }
+
+    public Map<String, String> getDiscounts(String languageTag){
+        long start = CatalogMetrics.start();
+        ResourceFormatter formatter = formatters.getOrDefault(languageTag, formatters.get(DEFAULT_LANGUAGE));
+        Map<String, String> discounts = new LinkedHashMap<>();
+        products.getDiscounts().getDiscounts()
+                .forEach((rating, discount) -> discounts.put(rating.getStars(), formatter.formatMoney(discount)));
+        metrics.record(MetricsSnapshot.Operation.DISCOUNTS, start);
+        return discounts;
     }
 
     private void loadAllData() {
+        long start = CatalogMetrics.start();
+        ProductStore store = new ProductStore();
+        CatalogLoader loader = new CatalogLoader(dataFolder, loadThreads,
+                this::parseProduct, this::parseReview,
+                this::reviewsFileName, reviewTier == null ? product -> null : reviewTier::claim);
+        loadReport = loader.load(store);
+        store.setLockTimer(metrics.getLocks());
+        products = store;
+        metrics.record(MetricsSnapshot.Operation.LOAD, start);
+        log.log(Level.INFO, "Loaded data: {0}", loadReport);
+        if (productParseErrors.sum() + reviewParseErrors.sum() > 0) {
+            log.log(Level.WARNING, "Skipped {0} unparseable product lines and {1} unparseable review lines",
+                    new Object[]{productParseErrors.sum(), reviewParseErrors.sum()});
+        }
+    }
+
+    /**
+     * @return number of product lines {@link #parseProduct(String)} rejected so far
+     */
+    public long getProductParseErrors() {
+        return productParseErrors.sum();
+    }
+
+    /**
+     * @return number of review lines {@link #parseReview(String)} rejected so far
+     */
+    public long getReviewParseErrors() {
+        return reviewParseErrors.sum();
+    }
+
+    private String reviewsFileName(int id) {
+        return MessageFormat.format(config.getString("reviews.data.file"), String.valueOf(id));
+    }
+
+    private void openJournal() {
+        try {
+            journal = new ReviewJournal(journalFolder,
+                    ReviewJournal.SyncPolicy.valueOf(config.getString("journal.sync").toUpperCase(Locale.ROOT)),
+                    Long.parseLong(config.getString("journal.sync.interval.ms")),
+                    Integer.parseInt(config.getString("journal.sync.records")));
+            compactor = new JournalCompactor(journal, journalFolder, dataFolder, this::reviewsFileName, reviewParser);
+            compactor.recover();
+        } catch (IOException | RuntimeException ex) {
+            journal = null;
+            compactor = null;
+            log.log(Level.SEVERE, "Error opening review journal, reviews will not survive a restart", ex);
+        }
+    }
+
+    /**
+     * Applies journaled reviews that the loaded catalog does not contain yet.
+     */
+    private void replayJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            LongAdder replayed = new LongAdder();
+            journal.replay(journal.getCheckpoint(), record -> {
+                ProductStore.Entry entry = products.get(record.getProductId());
+                if (entry == null) {
+                    log.log(Level.WARNING, "Journaled review for unknown product {0}", record.getProductId());
+                    return;
+                }
+                entry.lock();
+                try {
+                    if (record.getSequence() > entry.getJournalSequence()) {
+                        try {
+                            reviewProduct(entry, record.getRating(), record.getComments());
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                        entry.setJournalSequence(record.getSequence());
+                        entry.journaled(1);
+                        replayed.increment();
+                    }
+                } finally {
+                    entry.unlock();
+                }
+            });
+            log.log(Level.INFO, "Replayed {0} journaled reviews", replayed.sum());
+        } catch (IOException | UncheckedIOException ex) {
+            log.log(Level.SEVERE, "Error replaying review journal " + ex.getMessage(), ex);
+        }
+    }
+
+    private void openReviewTier(int hotProducts) {
+        try {
+            reviewTier = new ReviewTier(tempFolder.resolve("reviews"), hotProducts,
+                    journal == null ? 0 : journal.getCheckpoint());
+        } catch (IOException ex) {
+            log.log(Level.SEVERE, "Error opening review archive, keeping all reviews on heap", ex);
+        }
+    }
+
+    /**
+     * Moves reviews still held on heap into the review archive and records where everything is,
+     * so the next start reads the archive index instead of the review files.
+     */
+    private void tierReviews() {
+        if (reviewTier == null) {
+            return;
+        }
+        try {
+            long sequence = journal == null ? 0 : journal.getLastSequence();
+            long archived = reviewTier.adopt(products);
+            reviewTier.checkpoint(products, sequence);
+            log.log(Level.INFO, "Archived {0} reviews", archived);
+        } catch (IOException ex) {
+            log.log(Level.SEVERE, "Error archiving reviews " + ex.getMessage(), ex);
+        }
+    }
+
+    private void watchData() {
         try {
-            products = Files.list(dataFolder)
-                    .filter(file -> file.getFileName().toString().startsWith("product"))
-                    .map(file -> loadProduct(file))
-                    .filter(product -> product != null)
-                    .collect(Collectors.toMap(product -> product,
-                            product -> loadReviews(product))
-                    );
+            watcher = new DataFolderWatcher(dataFolder,
+                    file -> fileId("product.data.file", file) != null || reviewsFileId(file) != null,
+                    Long.parseLong(config.getString("data.watch.quiet.ms")),
+                    Long.parseLong(config.getString("data.watch.max.delay.ms")),
+                    this::reloadFiles);
+            log.log(Level.INFO, "Watching {0} for changed product and review files", dataFolder);
         } catch (IOException ex) {
-            log.log(Level.SEVERE, "Error loading data " + ex.getMessage(), ex);
+            log.log(Level.SEVERE, "Error watching data folder " + dataFolder, ex);
+        }
+    }
 
+    private void rememberCompacted(Path file) {
+        try {
+            compactedFiles.put(file, Files.getLastModifiedTime(file));
+        } catch (IOException ex) {
+            compactedFiles.remove(file);
         }
     }
 
-    private void dumpData() {
+    // a review file exactly as the compactor left it holds nothing the catalog does not have
+    private boolean isCompacted(Path file) {
+        FileTime compacted = compactedFiles.remove(file);
         try {
-            // You could also use Files.createDirectories, that also creates all parent-folders that does not exist yet.
-            // Then the check on existence would not be necessary.
-            if (Files.notExists(tempFolder)) {
-                Files.createDirectories(tempFolder);
+            return compacted != null && compacted.equals(Files.getLastModifiedTime(file));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Applies a batch of changed files from the data folder to the live catalog, {@code null} rescans the whole folder.
+     * <p>
+     * Files are parsed first, without holding any lock. The entries of every affected product are then locked,
+     * in id order, and all additions, removals and replaced entries are applied to the store in one structural change.
+     * A product file that was added creates the product with its reviews, one that was deleted removes it, one that was
+     * changed replaces the product, rated from its reviews if it has any. A changed review file replaces the product's
+     * reviews with the file's, followed by any reviews journaled but not yet folded into the file, so a review taken
+     * while the file was being edited is never lost.
+     */
+    private void reloadFiles(Set<Path> changed) {
+        long start = CatalogMetrics.start();
+        reloadLock.lock();
+        try {
+            Set<Integer> ids = new TreeSet<>();
+            if (changed == null) {
+                try (Stream<Path> files = Files.list(dataFolder)) {
+                    files.map(file -> fileId("product.data.file", file)).filter(Objects::nonNull).forEach(ids::add);
+                }
+                products.forEach(entry -> ids.add(entry.getId()));
+            } else {
+                for (Path file : changed) {
+                    Integer id = fileId("product.data.file", file);
+                    ids.add(id != null ? id : reviewsFileId(file));
+                }
             }
-            Path tempFile = tempFolder.resolve(MessageFormat.format(config.getString("temp.file"), Instant.now()));
-            try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(tempFile, StandardOpenOption.CREATE))) {
-                out.writeObject(products);
-                //products = new HashMap<>();
+            CatalogLoader loader = new CatalogLoader(dataFolder, 1, this::parseProduct, this::parseReview,
+                    this::reviewsFileName);
+            List<FileChange> batch = new ArrayList<>();
+            for (int id : ids) {
+                Path productFile = dataFolder.resolve(productFileName(id));
+                Path reviewsFile = dataFolder.resolve(reviewsFileName(id));
+                FileChange change = new FileChange(id);
+                if (changed == null || changed.contains(productFile)) {
+                    change.productChanged = true;
+                    change.exists = Files.exists(productFile);
+                    change.product = change.exists ? loader.loadProduct(productFile) : null;
+                }
+                if ((changed == null || changed.contains(reviewsFile)) && !isCompacted(reviewsFile)) {
+                    change.reviews = loader.loadReviews(reviewsFile);
+                } else if (change.product != null && products.get(id) == null) {
+                    change.reviews = loader.loadReviews(reviewsFile);
+                }
+                if (change.productChanged || change.reviews != null) {
+                    batch.add(change);
+                }
             }
+            if (!batch.isEmpty()) {
+                applyFileChanges(batch);
+            }
+            metrics.record(MetricsSnapshot.Operation.RELOAD, start);
+        } catch (IOException | UncheckedIOException ex) {
+            metrics.failed(MetricsSnapshot.Operation.RELOAD);
+            log.log(Level.SEVERE, "Error reloading data folder " + ex.getMessage(), ex);
+        } finally {
+            reloadLock.unlock();
+        }
+    }
 
-        } catch (IOException ex) {
-            log.log(Level.SEVERE, "Error dumping data " + ex.getMessage(), ex);
+    private void applyFileChanges(List<FileChange> batch) throws IOException {
+        List<ProductStore.Entry> locked = new ArrayList<>();
+        List<ProductStore.Entry> removed = new ArrayList<>();
+        List<ProductStore.Entry> added = new ArrayList<>();
+        int changedProducts = 0;
+        int replacedReviews = 0;
+        try {
+            for (FileChange change : batch) {
+                // nothing else retires entries while the reload lock is held, so this is the live entry
+                ProductStore.Entry entry = products.get(change.id);
+                if (entry != null) {
+                    entry.lock();
+                    locked.add(entry);
+                }
+                if (change.productChanged && change.product == null) {
+                    if (change.exists) {
+                        log.log(Level.WARNING, "Product file of {0} is unreadable, keeping the product", change.id);
+                    } else if (entry != null) {
+                        removed.add(entry);
+                    }
+                    continue;
+                }
+                Product product = change.productChanged ? change.product : (entry == null ? null : entry.getProduct());
+                if (product == null) {
+                    continue;
+                }
+                if (product.getId() != change.id) {
+                    log.log(Level.WARNING, "Product file of {0} holds product {1}, ignoring it",
+                            new Object[]{change.id, product.getId()});
+                    continue;
+                }
+                if (entry == null) {
+                    added.add(new ProductStore.Entry(product, change.reviews));
+                } else if (change.reviews != null) {
+                    List<Review> current = entry.readReviews();
+                    List<Review> reviews = new ArrayList<>(change.reviews);
+                    reviews.addAll(current.subList(current.size() - Math.min(entry.getUnfolded(), current.size()),
+                            current.size()));
+                    ProductStore.Entry replacement = new ProductStore.Entry(product, reviews);
+                    replacement.attach(rated(product, replacement.getRatings()));
+                    replacement.setJournalSequence(entry.getJournalSequence());
+                    replacement.journaled(reviews.size() - change.reviews.size());
+                    added.add(replacement);
+                    replacedReviews++;
+                } else {
+                    products.replace(entry, rated(product, entry.getRatings()));
+                    changedProducts++;
+                }
+            }
+            products.apply(removed, added);
+            for (ProductStore.Entry entry : locked) {
+                if (products.get(entry.getId()) != entry) {
+                    entry.retire();
+                }
+                formatters.values().forEach(formatter -> formatter.invalidate(entry.getId()));
+            }
+        } finally {
+            locked.forEach(ProductStore.Entry::unlock);
+        }
+        if (reviewTier != null) {
+            reviewTier.adopt(products);
+        }
+        log.log(Level.INFO, "Reloaded data folder: {0} products added, {1} changed, {2} removed, {3} review files replaced",
+                new Object[]{added.size() - replacedReviews, changedProducts, removed.size(), replacedReviews});
+    }
 
+    private static Product rated(Product product, RatingAccumulator ratings) {
+        return ratings.getCount() > 0 ? product.applyRating(ratings.getRating()) : product;
+    }
+
+    private String productFileName(int id) {
+        return MessageFormat.format(config.getString("product.data.file"), String.valueOf(id));
+    }
+
+    /**
+     * What one batch of file events means for one product, read before any entry is locked.
+     */
+    private static final class FileChange {
+        private final int id;
+        private boolean productChanged;
+        private boolean exists;
+        private Product product;
+        private List<Review> reviews;
+
+        private FileChange(int id) {
+            this.id = id;
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void restoreData() {
+    /**
+     * Folds the reviews journaled so far into the review files of the data folder.
+     * Runs in the background every {@code journal.compact.interval.ms}.
+     */
+    public void compactJournal() {
+        if (compactor == null) {
+            return;
+        }
+        // a reload reads review files and the entries' unfolded counts, it must see both before or after compaction
+        reloadLock.lock();
         try {
-            Path tempFile = Files.list(tempFolder)
-                    .filter(path -> path.getFileName().toString().endsWith(".tmp")).findFirst().orElseThrow();
-            try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(tempFile, StandardOpenOption.DELETE_ON_CLOSE))) {
-                System.out.println("Read projects from " + tempFile.getFileName());
-                products = (HashMap) in.readObject();
+            long sequence = journal.getLastSequence();
+            Map<Integer, Integer> folded = compactor.compact();
+            folded.forEach((id, count) -> {
+                ProductStore.Entry entry = lockEntry(id);
+                if (entry != null) {
+                    try {
+                        entry.folded(count);
+                    } finally {
+                        entry.unlock();
+                    }
+                }
+                if (watcher != null) {
+                    rememberCompacted(dataFolder.resolve(reviewsFileName(id)));
+                }
+            });
+            if (reviewTier != null) {
+                reviewTier.checkpoint(products, sequence);
             }
-        } catch (Exception ex) {
-            log.log(Level.SEVERE, "Error reading data " + ex.getMessage(), ex);
+        } catch (IOException ex) {
+            log.log(Level.SEVERE, "Error compacting review journal " + ex.getMessage(), ex);
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    /**
+     * @return how the last load of the data folder went, including how long it took
+     */
+    public LoadReport getLoadReport() {
+        return loadReport;
+    }
+
+    /**
+     * Copies the catalog, with every review, into primitive columns.
+     * The copy does not follow later changes to this catalog, and this catalog keeps its own objects,
+     * so both are on the heap until one of them is dropped.
+     * @see CompactCatalog
+     */
+    public CompactCatalog toCompactCatalog() {
+        ProductStore store = products;
+        CompactCatalog catalog = new CompactCatalog(store.size(),
+                (int) Math.min(store.getReviewCount(), Integer.MAX_VALUE - 8));
+        store.forEach(entry -> entry.withLock(locked -> {
+            catalog.add(locked.getProduct());
+            for (Review review : locked.readReviews()) {
+                catalog.appendReview(locked.getId(), review.getRating(), review.getComments());
+            }
+            catalog.seedRatings(locked.getId(), locked.getRatings().snapshot());
+            return null;
+        }));
+        return catalog;
+    }
 
+    /**
+     * Writes the catalog to a new binary snapshot in the temp folder.
+     * @see CatalogSnapshot
+     */
+    public void dumpData() {
+        try {
+            Path snapshot = CatalogSnapshot.write(tempFolder, products, journal == null ? 0 : journal.getLastSequence());
+            log.log(Level.INFO, "Dumped data to {0}", snapshot);
+        } catch (IOException ex) {
+            log.log(Level.SEVERE, "Error dumping data " + ex.getMessage(), ex);
         }
+    }
 
+    /**
+     * Replaces the catalog with the latest readable snapshot in the temp folder
+     * and replays the reviews journaled after it.
+     * @return {@code true} if a snapshot was restored
+     */
+    public boolean restoreData() {
+        long start = CatalogMetrics.start();
+        try {
+            Optional<ProductStore> restored = CatalogSnapshot.readLatest(tempFolder,
+                    journal == null ? 0 : journal.getCheckpoint());
+            restored.ifPresent(store -> {
+                store.setLockTimer(metrics.getLocks());
+                products = store;
+                replayJournal();
+                tierReviews();
+            });
+            metrics.record(MetricsSnapshot.Operation.LOAD, start);
+            return restored.isPresent();
+        } catch (IOException ex) {
+            metrics.failed(MetricsSnapshot.Operation.LOAD);
+            log.log(Level.SEVERE, "Error reading data " + ex.getMessage(), ex);
+            return false;
+        }
     }
 
-    private Product loadProduct(Path file){
-        Product product = null;
-        if (Files.exists(file)) {
+    /**
+     * @return the catalog's counters, latencies and sizes as they are now
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot(products, productParseErrors.sum(), reviewParseErrors.sum());
+    }
+
+    /**
+     * Hands a fresh {@link MetricsSnapshot} to the exporter every {@code periodMillis} until the catalog is closed.
+     * Exporters run on the shared maintenance thread and should return quickly.
+     */
+    public void addMetricsExporter(MetricsExporter exporter, long periodMillis) {
+        exporters.add(maintenance.scheduleAtFixedRate(() -> {
+            try {
+                exporter.export(getMetrics());
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING, "Metrics exporter failed", ex);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("labs.pm", new Hashtable<>(Map.of("type", "ProductManager",
+                    "name", ObjectName.quote(name))));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(new Management(), ProductManagerMXBean.class, true), objectName);
+            return objectName;
+        } catch (JMException ex) {
+            log.log(Level.WARNING, "Catalog metrics are not available over JMX", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Stops background compaction, closes the journal and lets reports already queued finish.
+     * The catalog can still be read afterwards but new reviews are no longer journaled.
+     */
+    @Override
+    public void close() {
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (compaction != null) {
+            compaction.cancel(false);
+        }
+        exporters.forEach(exporter -> exporter.cancel(false));
+        if (mbeanName != null) {
             try {
-                //  Alternative for StandardCharsets.UTF_8: Charset.forName("UTF-8"). However, again this relies on a hardcoded string.
-                product = parseProduct(
-                        Files.lines(dataFolder.resolve(file), StandardCharsets.UTF_8).findFirst().orElseThrow());
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException ex) {
+                log.log(Level.FINE, "Catalog MBean already unregistered", ex);
+            }
+        }
+        reportService.shutdown();
+        if (reviewTier != null) {
+            try {
+                reviewTier.checkpoint(products, journal == null ? 0 : journal.getLastSequence());
             } catch (IOException ex) {
-                log.log(Level.WARNING, "Error loading product " + ex.getMessage());
+                log.log(Level.SEVERE, "Error writing review index " + ex.getMessage(), ex);
             }
+            reviewTier.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        formatters.values().forEach(ResourceFormatter::clear);
+    }
 
+    /**
+     * Exposes {@link #getMetrics()} over JMX, each attribute read takes a fresh snapshot.
+     */
+    private class Management implements ProductManagerMXBean {
+        @Override
+        public int getProducts() {
+            return products.size();
+        }
+
+        @Override
+        public long getReviews() {
+            return products.getReviewCount();
+        }
+
+        @Override
+        public long getProductParseErrors() {
+            return productParseErrors.sum();
+        }
+
+        @Override
+        public long getReviewParseErrors() {
+            return reviewParseErrors.sum();
+        }
+
+        @Override
+        public Map<String, LatencyStats> getLatencies() {
+            Map<String, LatencyStats> latencies = new LinkedHashMap<>();
+            getMetrics().getLatencies().forEach((operation, stats) -> latencies.put(operation.name(), stats));
+            return latencies;
+        }
+
+        @Override
+        public Map<String, Long> getErrors() {
+            MetricsSnapshot snapshot = getMetrics();
+            Map<String, Long> errors = new LinkedHashMap<>();
+            for (MetricsSnapshot.Operation operation : MetricsSnapshot.Operation.values()) {
+                errors.put(operation.name(), snapshot.getErrors(operation));
+            }
+            return errors;
+        }
+
+        @Override
+        public LatencyStats getLockWait() {
+            return getMetrics().getLockWait();
+        }
+
+        @Override
+        public LatencyStats getLockHold() {
+            return getMetrics().getLockHold();
         }
-        return product;
     }
-    private static class ResourceFormatter {
-        private Locale locale;
-        private ResourceBundle resources;
-        private DateTimeFormatter dateFormat;
-        private NumberFormat moneyFormat;
 
-        public ResourceFormatter(Locale locale) {
-            this.locale = locale;
-            resources = ResourceBundle.getBundle("labs.pm.data.resources", locale);
-            dateFormat = DateTimeFormatter.ofLocalizedDate(FormatStyle.SHORT).localizedBy(locale);
-            moneyFormat = NumberFormat.getCurrencyInstance(locale);
+    /**
+     * Collects the folders and load settings of one catalog.
+     * Folders must not be shared with another catalog, {@link CatalogRegistry} refuses catalogs that do.
+     */
+    public static final class Builder {
+        private Path dataFolder = Path.of(config.getString("data.folder"));
+        private Path reportsFolder = Path.of(config.getString("reports.folder"));
+        private Path tempFolder = Path.of(config.getString("temp.folder"));
+        private Path journalFolder = Path.of(config.getString("journal.folder"));
+        private int loadThreads = Integer.parseInt(config.getString("load.threads"));
+        private boolean loadSnapshot = Boolean.parseBoolean(config.getString("load.snapshot"));
+        private boolean mappedReviews = Boolean.parseBoolean(config.getString("reviews.mapped"));
+        private int hotProducts = Integer.parseInt(config.getString("reviews.hot.products"));
+        private ThreadMode reportThreadMode = ThreadMode.of(config.getString("report.threads.mode"));
+        private boolean watchData = Boolean.parseBoolean(config.getString("data.watch"));
+        private long reportCacheBytes = Long.parseLong(config.getString("report.cache.bytes"));
+        private String name = "default";
+
+        private Builder() {
+        }
+
+        /**
+         * @param name names the catalog in its JMX registration
+         */
+        public Builder name(String name) {
+            this.name = Objects.requireNonNull(name);
+            return this;
+        }
+
+        /**
+         * @return the folder the catalog will load its products and reviews from
+         */
+        public Path getDataFolder() {
+            return dataFolder;
+        }
+
+        public Builder dataFolder(Path dataFolder) {
+            this.dataFolder = Objects.requireNonNull(dataFolder);
+            return this;
+        }
+
+        public Builder reportsFolder(Path reportsFolder) {
+            this.reportsFolder = Objects.requireNonNull(reportsFolder);
+            return this;
+        }
+
+        public Builder tempFolder(Path tempFolder) {
+            this.tempFolder = Objects.requireNonNull(tempFolder);
+            return this;
+        }
+
+        public Builder journalFolder(Path journalFolder) {
+            this.journalFolder = Objects.requireNonNull(journalFolder);
+            return this;
+        }
+
+        /**
+         * @param loadThreads threads loading the data folder, {@code 0} for one per processor
+         */
+        public Builder loadThreads(int loadThreads) {
+            this.loadThreads = loadThreads;
+            return this;
+        }
+
+        /**
+         * @param loadSnapshot start from the latest snapshot in the temp folder rather than the data folder
+         */
+        public Builder loadSnapshot(boolean loadSnapshot) {
+            this.loadSnapshot = loadSnapshot;
+            return this;
+        }
+
+        /**
+         * @param mappedReviews keep reviews in memory-mapped files under the temp folder and only recently read ones on heap
+         */
+        public Builder mappedReviews(boolean mappedReviews) {
+            this.mappedReviews = mappedReviews;
+            return this;
+        }
+
+        /**
+         * @param hotProducts how many products keep their reviews on heap when reviews are mapped
+         */
+        public Builder hotProducts(int hotProducts) {
+            this.hotProducts = hotProducts;
+            return this;
+        }
+
+        /**
+         * @param watchData apply product and review files added, changed or removed in the data folder while running
+         */
+        public Builder watchData(boolean watchData) {
+            this.watchData = watchData;
+            return this;
+        }
+
+        /**
+         * @param reportThreadMode whether report files are written on a pool of platform threads or a virtual thread each
+         */
+        public Builder reportThreadMode(ThreadMode reportThreadMode) {
+            this.reportThreadMode = Objects.requireNonNull(reportThreadMode);
+            return this;
+        }
+
+        /**
+         * @param reportCacheBytes bytes of rendered reports kept to copy while their product is unchanged, {@code 0} for none
+         */
+        public Builder reportCacheBytes(long reportCacheBytes) {
+            this.reportCacheBytes = reportCacheBytes;
+            return this;
         }
 
-        private String formatProduct(Product product) {
-            return MessageFormat.format(resources.getString("product"),
-                    product.getName(), moneyFormat.format(product.getPrice()),
-                    product.getRating().getStars(), dateFormat.format(product.getBestBefore()));
+        List<Path> getFolders() {
+            return List.of(dataFolder, reportsFolder, tempFolder, journalFolder);
         }
 
-        private String formatReview(Review review) {
-            return MessageFormat.format(resources.getString("review"),
-                    review.getRating().getStars(), review.getComments());
+        /**
+         * @return a builder with the same settings, unaffected by later changes to this one
+         */
+        Builder copy() {
+            Builder copy = new Builder();
+            copy.dataFolder = dataFolder;
+            copy.reportsFolder = reportsFolder;
+            copy.tempFolder = tempFolder;
+            copy.journalFolder = journalFolder;
+            copy.loadThreads = loadThreads;
+            copy.loadSnapshot = loadSnapshot;
+            copy.mappedReviews = mappedReviews;
+            copy.hotProducts = hotProducts;
+            copy.reportThreadMode = reportThreadMode;
+            copy.watchData = watchData;
+            copy.reportCacheBytes = reportCacheBytes;
+            copy.name = name;
+            return copy;
         }
 
-        private String getString(String key) {
-            return resources.getString(key);
+        /**
+         * Creates the catalog, loading its data before returning.
+         */
+        public ProductManager build() {
+            return new ProductManager(this);
         }
     }
 }
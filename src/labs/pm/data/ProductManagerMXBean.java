@@ -0,0 +1,33 @@
+package labs.pm.data;
+
+import java.util.Map;
+
+/**
+ * {@code ProductManagerMXBean} is the JMX view of a catalog's metrics, registered as
+ * {@code labs.pm:type=ProductManager,name=<catalog name>}. Durations are in nanoseconds.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public interface ProductManagerMXBean {
+    int getProducts();
+
+    long getReviews();
+
+    long getProductParseErrors();
+
+    long getReviewParseErrors();
+
+    /**
+     * @return latency per operation, keyed by operation name
+     */
+    Map<String, LatencyStats> getLatencies();
+
+    /**
+     * @return failed calls per operation, keyed by operation name
+     */
+    Map<String, Long> getErrors();
+
+    LatencyStats getLockWait();
+
+    LatencyStats getLockHold();
+}
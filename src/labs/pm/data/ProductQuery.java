@@ -0,0 +1,178 @@
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * {@code ProductQuery} describes a catalog scan: structured criteria the catalog can answer from its indexes,
+ * an optional free-form filter, an order and a page.
+ * <p>
+ * Ordering by {@link #BY_RATING}, {@link #BY_RATING_ASCENDING}, {@link #BY_PRICE} or {@link #BY_PRICE_DESCENDING}
+ * walks the matching index in order and stops once the page is full, any other comparator keeps only the
+ * best {@code offset + limit} products in a bounded heap. Either way the whole catalog is never sorted.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class ProductQuery {
+    public static final Comparator<Product> BY_ID = Comparator.comparingInt(Product::getId);
+    public static final Comparator<Product> BY_RATING =
+            Comparator.comparing(Product::getRating).reversed().thenComparing(BY_ID);
+    public static final Comparator<Product> BY_RATING_ASCENDING =
+            Comparator.comparing(Product::getRating).thenComparing(BY_ID);
+    public static final Comparator<Product> BY_PRICE =
+            Comparator.comparing(Product::getPrice).thenComparing(BY_ID);
+    public static final Comparator<Product> BY_PRICE_DESCENDING =
+            Comparator.comparing(Product::getPrice).reversed().thenComparing(BY_ID);
+
+    public enum Type {
+        FOOD, DRINK
+    }
+
+    private Set<Rating> ratings;
+    private BigDecimal minPrice;
+    private BigDecimal maxPrice;
+    private Type type;
+    private LocalDate bestBeforeFrom;
+    private LocalDate bestBeforeTo;
+    private Predicate<Product> filter;
+    private Comparator<Product> order;
+    private int offset;
+    private int limit = Integer.MAX_VALUE;
+
+    private ProductQuery() {
+    }
+
+    public static ProductQuery all() {
+        return new ProductQuery();
+    }
+
+    public ProductQuery rating(Rating first, Rating... more) {
+        ratings = EnumSet.of(first, more);
+        return this;
+    }
+
+    /**
+     * @param min lowest price, inclusive, or {@code null} for no lower bound
+     * @param max highest price, inclusive, or {@code null} for no upper bound
+     */
+    public ProductQuery priceBetween(BigDecimal min, BigDecimal max) {
+        minPrice = min;
+        maxPrice = max;
+        return this;
+    }
+
+    public ProductQuery type(Type type) {
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * @param from earliest best before date, inclusive, or {@code null} for no lower bound
+     * @param to latest best before date, inclusive, or {@code null} for no upper bound
+     */
+    public ProductQuery bestBeforeBetween(LocalDate from, LocalDate to) {
+        bestBeforeFrom = from;
+        bestBeforeTo = to;
+        return this;
+    }
+
+    /**
+     * Adds a free-form condition, checked after the indexed criteria.
+     */
+    public ProductQuery matching(Predicate<Product> filter) {
+        this.filter = (this.filter == null) ? filter : this.filter.and(filter);
+        return this;
+    }
+
+    public ProductQuery orderBy(Comparator<Product> order) {
+        this.order = order;
+        return this;
+    }
+
+    public ProductQuery page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+        this.offset = offset;
+        this.limit = limit;
+        return this;
+    }
+
+    Set<Rating> getRatings() {
+        return ratings;
+    }
+
+    BigDecimal getMinPrice() {
+        return minPrice;
+    }
+
+    BigDecimal getMaxPrice() {
+        return maxPrice;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    LocalDate getBestBeforeFrom() {
+        return bestBeforeFrom;
+    }
+
+    LocalDate getBestBeforeTo() {
+        return bestBeforeTo;
+    }
+
+    Comparator<Product> getOrder() {
+        return order;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return how many products have to be found before the page is complete
+     */
+    int getWanted() {
+        return (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+    }
+
+    boolean hasPriceRange() {
+        return minPrice != null || maxPrice != null;
+    }
+
+    boolean hasBestBeforeRange() {
+        return bestBeforeFrom != null || bestBeforeTo != null;
+    }
+
+    boolean test(Product product) {
+        if (ratings != null && !ratings.contains(product.getRating())) {
+            return false;
+        }
+        if (minPrice != null && product.getPrice().compareTo(minPrice) < 0) {
+            return false;
+        }
+        if (maxPrice != null && product.getPrice().compareTo(maxPrice) > 0) {
+            return false;
+        }
+        if (type != null && (product instanceof Food) != (type == Type.FOOD)) {
+            return false;
+        }
+        if (hasBestBeforeRange()) {
+            LocalDate bestBefore = product.getBestBefore();
+            if ((bestBeforeFrom != null && bestBefore.isBefore(bestBeforeFrom))
+                    || (bestBeforeTo != null && bestBefore.isAfter(bestBeforeTo))) {
+                return false;
+            }
+        }
+        return filter == null || filter.test(product);
+    }
+}
@@ -0,0 +1,555 @@
+package labs.pm.data;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * {@code ProductStore} keeps the catalog indexed by product id.
+ * Ids are stored in a primitive {@code int[]} using open addressing with linear probing,
+ * so a lookup never boxes the key and never scans the catalog.
+ * Each slot holds an {@link Entry} that keeps the current product instance together with its reviews.
+ * <p>
+ * Lookups are lock free: they probe under an optimistic {@link StampedLock} read and only fall back
+ * to a real read lock if a structural change raced with them. Adding products takes the write lock.
+ * Iteration walks the table as it was when iteration started and is weakly consistent,
+ * every product it returns is an immutable instance that was current at some point during the walk.
+ * Review changes never touch the table, they are guarded by the lock of their own {@link Entry}.
+ * <p>
+ * The store also owns the aggregates derived from its products, such as the {@link DiscountIndex},
+ * the {@link ProductIndex} and the {@link NameIndex},
+ * and keeps them in step: products must be added through {@link #putIfAbsent(Entry)} or {@link #apply},
+ * removed through {@link #apply} and swapped through {@link #replace(Entry, Product)}.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class ProductStore {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.5f;
+    private final StampedLock lock = new StampedLock();
+    private final DiscountIndex discounts = new DiscountIndex(Clock.systemDefaultZone());
+    private final ProductIndex index = new ProductIndex(this::entries);
+    private final NameIndex names = new NameIndex();
+    private final LongAdder reviews = new LongAdder();
+    private volatile CatalogMetrics.LockTimer lockTimer = CatalogMetrics.LockTimer.NONE;
+    private volatile Table table;
+    private int size;
+
+    ProductStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    ProductStore(int expectedSize) {
+        table = new Table(tableSizeFor((int) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR)));
+    }
+
+    Entry get(int id) {
+        long stamp = lock.tryOptimisticRead();
+        Entry entry = table.get(id);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                entry = table.get(id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Adds the entry unless the store already holds one with the same product id.
+     * @return the existing entry, or {@code null} if the new entry was added
+     */
+    Entry putIfAbsent(Entry entry) {
+        long stamp = lock.writeLock();
+        try {
+            Entry existing = table.get(entry.id);
+            if (existing != null) {
+                return existing;
+            }
+            if (size >= table.threshold) {
+                table = table.resize();
+            }
+            entry.timer = lockTimer;
+            table.insert(entry);
+            size++;
+            reviews.add(entry.getRatings().getCount());
+            discounts.add(entry.getProduct());
+            index.add(entry, entry.getProduct());
+            names.add(entry, entry.getProduct());
+            return null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes and adds entries as one structural change under a single write lock, so a lookup sees the store either
+     * before or after all of it. An added entry replaces any entry with the same id.
+     * The caller must hold the locks of the entries removed or replaced and retire them before releasing the locks.
+     * Removals copy the table rather than shifting slots in place, so an iteration already under way is not disturbed.
+     */
+    void apply(Collection<Entry> removed, Collection<Entry> added) {
+        long stamp = lock.writeLock();
+        try {
+            Set<Entry> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Entry entry : removed) {
+                if (table.get(entry.id) == entry) {
+                    gone.add(entry);
+                }
+            }
+            for (Entry entry : added) {
+                Entry existing = table.get(entry.id);
+                if (existing != null && existing != entry) {
+                    gone.add(existing);
+                }
+            }
+            for (Entry entry : gone) {
+                size--;
+                reviews.add(-entry.getRatings().getCount());
+                discounts.remove(entry.getProduct());
+                index.remove(entry, entry.getProduct());
+                names.remove(entry, entry.getProduct());
+            }
+            if (!gone.isEmpty()) {
+                table = table.without(gone);
+            }
+            for (Entry entry : added) {
+                if (size >= table.threshold) {
+                    table = table.resize();
+                }
+                entry.timer = lockTimer;
+                table.insert(entry);
+                size++;
+                reviews.add(entry.getRatings().getCount());
+                discounts.add(entry.getProduct());
+                index.add(entry, entry.getProduct());
+                names.add(entry, entry.getProduct());
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Swaps the product of an entry for a new instance, e.g. after a rating change.
+     * Must be called while holding the entry lock.
+     */
+    void replace(Entry entry, Product product) {
+        Product previous = entry.getProduct();
+        entry.setProduct(product);
+        discounts.replace(previous, product);
+        index.replace(entry, previous, product);
+        names.replace(entry, previous, product);
+    }
+
+    /**
+     * Counts reviews added to an entry already in the store.
+     */
+    void reviewsAdded(int count) {
+        reviews.add(count);
+    }
+
+    long getReviewCount() {
+        return reviews.sum();
+    }
+
+    /**
+     * Times the entry locks of every current and future entry with the timer.
+     */
+    void setLockTimer(CatalogMetrics.LockTimer timer) {
+        long stamp = lock.writeLock();
+        try {
+            lockTimer = timer;
+            forEach(entry -> entry.timer = timer);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    DiscountIndex getDiscounts() {
+        return discounts;
+    }
+
+    List<Product> query(ProductQuery query) {
+        return index.query(query);
+    }
+
+    List<Product> search(String text, ProductQuery query) {
+        return names.search(text, query);
+    }
+
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    void forEach(Consumer<Entry> action) {
+        for (Entry entry : table.entries) {
+            if (entry != null) {
+                action.accept(entry);
+            }
+        }
+    }
+
+    Stream<Entry> entries() {
+        return Arrays.stream(table.entries).filter(entry -> entry != null);
+    }
+
+    Stream<Product> products() {
+        return entries().map(Entry::getProduct);
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        return Math.max(n, DEFAULT_CAPACITY);
+    }
+
+    private static final class Table {
+        private final int[] keys;
+        private final Entry[] entries;
+        private final int threshold;
+
+        private Table(int capacity) {
+            keys = new int[capacity];
+            entries = new Entry[capacity];
+            threshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        private Entry get(int id) {
+            int mask = keys.length - 1;
+            // bounded so that a read racing with a writer can never spin, the caller validates the result
+            for (int i = hash(id) & mask, probes = 0; probes < keys.length; i = (i + 1) & mask, probes++) {
+                Entry entry = entries[i];
+                if (entry == null) {
+                    return null;
+                }
+                if (keys[i] == id && entry.id == id) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        private void insert(Entry entry) {
+            int mask = keys.length - 1;
+            int i = hash(entry.id) & mask;
+            while (entries[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = entry.id;
+            entries[i] = entry;
+        }
+
+        private Table resize() {
+            Table resized = new Table(keys.length << 1);
+            for (Entry entry : entries) {
+                if (entry != null) {
+                    resized.insert(entry);
+                }
+            }
+            return resized;
+        }
+
+        private Table without(Set<Entry> removed) {
+            Table copy = new Table(keys.length);
+            for (Entry entry : entries) {
+                if (entry != null && !removed.contains(entry)) {
+                    copy.insert(entry);
+                }
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * A catalog slot: the latest product instance for an id, its reviews and their running rating totals.
+     * Rating changes replace the product in place, the slot stays the same.
+     * The product is published through a volatile field so readers never need the entry lock,
+     * the reviews, rating totals and journal sequence may only be touched while holding the entry lock.
+     * <p>
+     * An entry attached to a {@link ReviewTier} keeps its reviews in the tier's archive and holds
+     * the list only while it is hot.
+     * <p>
+     * An entry replaced or removed by {@link ProductStore#apply} is retired while its lock is held;
+     * a thread that locks an entry to change it must check {@link #isRetired()} and look the product up again.
+     */
+    static final class Entry {
+        private static final AtomicLong versions = new AtomicLong();
+        private final int id;
+        private volatile Product product;
+        private List<Review> reviews;
+        private ReviewIndex reviewIndex;
+        private final RatingAccumulator ratings;
+        private final ReentrantLock lock = new ReentrantLock();
+        private long journalSequence;
+        private ReviewTier tier;
+        private long reviewChain = ReviewArchive.NONE;
+        private int unfolded;
+        private volatile boolean retired;
+        private volatile long version = versions.incrementAndGet();
+        private volatile CatalogMetrics.LockTimer timer = CatalogMetrics.LockTimer.NONE;
+        private CatalogMetrics.LockTimer holdTimer;
+        private long lockedAt;
+
+        Entry(Product product) {
+            this(product, new ArrayList<>());
+        }
+
+        Entry(Product product, List<Review> reviews) {
+            this.id = product.getId();
+            this.product = product;
+            this.reviews = reviews;
+            this.reviewIndex = new ReviewIndex(reviews);
+            this.ratings = new RatingAccumulator(reviews);
+        }
+
+        /**
+         * A cold entry whose reviews are all in the tier's archive, its product is attached before it is stored.
+         */
+        Entry(int id, RatingAccumulator ratings, long reviewChain, long journalSequence, ReviewTier tier) {
+            this.id = id;
+            this.ratings = ratings;
+            this.reviewChain = reviewChain;
+            this.journalSequence = journalSequence;
+            this.tier = tier;
+        }
+
+        int getId() {
+            return id;
+        }
+
+        Product getProduct() {
+            return product;
+        }
+
+        private void setProduct(Product product) {
+            this.product = product;
+            version = versions.incrementAndGet();
+        }
+
+        /**
+         * @return a number that changes whenever a review is added or the product is replaced, and that no other
+         * entry, including one replacing this entry on a reload, ever has; read without the entry lock
+         */
+        long getVersion() {
+            return version;
+        }
+
+        void attach(Product product) {
+            if (product.getId() != id) {
+                throw new IllegalArgumentException("Product " + product.getId() + " does not belong to entry " + id);
+            }
+            this.product = product;
+        }
+
+        /**
+         * @return the reviews, oldest first, read only; a cold entry loads them from its tier and becomes hot
+         */
+        List<Review> getReviews() {
+            if (tier != null) {
+                if (reviews == null) {
+                    reviews = tier.read(reviewChain);
+                    reviewIndex = new ReviewIndex(reviews);
+                }
+                tier.touch(this);
+            }
+            return Collections.unmodifiableList(reviews);
+        }
+
+        /**
+         * Copies up to {@code limit} reviews with one of the ratings, in report order, from the cursor on.
+         * A cold entry becomes hot, as with {@link #getReviews()}.
+         * @param cursor {@link ReviewIndex#START} or a cursor returned by an earlier call
+         * @return the cursor of the next page, {@link ReviewIndex#END} after the last one
+         * @see ReviewIndex
+         */
+        long pageReviews(Set<Rating> ratings, long cursor, int limit, List<Review> out) {
+            List<Review> all = getReviews();
+            return reviewIndex.page(all, ratings, cursor, limit, out);
+        }
+
+        /**
+         * Pages as {@link #pageReviews(Set, long, int, List)} but stops at bounds taken by {@link #reviewBounds()},
+         * so reviews added since do not appear.
+         */
+        long pageReviews(Set<Rating> ratings, long cursor, int limit, int[] bounds, List<Review> out) {
+            List<Review> all = getReviews();
+            return reviewIndex.page(all, ratings, cursor, limit, bounds, out);
+        }
+
+        /**
+         * @return how many reviews of each rating the entry holds now, a cold entry becomes hot
+         * @see ReviewIndex#bounds()
+         */
+        int[] reviewBounds() {
+            getReviews();
+            return reviewIndex.bounds();
+        }
+
+        /**
+         * @return the cursor {@code offset} reviews with one of the ratings into report order
+         */
+        long skipReviews(Set<Rating> ratings, long offset) {
+            getReviews();
+            return reviewIndex.skip(ratings, offset);
+        }
+
+        /**
+         * @return the reviews, oldest first, leaving a cold entry cold; copy the list before releasing the lock
+         */
+        List<Review> readReviews() {
+            return (reviews != null) ? reviews : tier.read(reviewChain);
+        }
+
+        /**
+         * Adds a review, archiving it first if the entry is attached to a tier.
+         * @throws IOException if the archive cannot take it, the entry is left unchanged
+         */
+        void addReview(Review review) throws IOException {
+            if (tier != null) {
+                reviewChain = tier.append(reviewChain, review);
+            }
+            if (reviews != null) {
+                reviews.add(review);
+                reviewIndex.add(review.getRating(), reviews.size() - 1);
+            }
+            version = versions.incrementAndGet();
+        }
+
+        boolean isTiered() {
+            return tier != null;
+        }
+
+        /**
+         * Attaches the entry to a tier that already holds all of its reviews and drops the list.
+         */
+        void tier(ReviewTier tier, long reviewChain) {
+            this.tier = tier;
+            this.reviewChain = reviewChain;
+            this.reviews = null;
+            this.reviewIndex = null;
+        }
+
+        long getReviewChain() {
+            return reviewChain;
+        }
+
+        /**
+         * Drops the review list unless another thread holds the entry.
+         * @return {@code true} if the entry is cold now
+         */
+        boolean tryEvict() {
+            if (!lock.tryLock()) {
+                return false;
+            }
+            try {
+                reviews = null;
+                reviewIndex = null;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        RatingAccumulator getRatings() {
+            return ratings;
+        }
+
+        /**
+         * @return number of the latest reviews that are journaled but not yet folded into the review file
+         */
+        int getUnfolded() {
+            return unfolded;
+        }
+
+        void journaled(int count) {
+            unfolded += count;
+        }
+
+        void folded(int count) {
+            unfolded = Math.max(unfolded - count, 0);
+        }
+
+        boolean isRetired() {
+            return retired;
+        }
+
+        void retire() {
+            retired = true;
+        }
+
+        /**
+         * @return sequence of the last journaled review already applied to this entry
+         */
+        long getJournalSequence() {
+            return journalSequence;
+        }
+
+        void setJournalSequence(long journalSequence) {
+            this.journalSequence = journalSequence;
+        }
+
+        /**
+         * Takes the entry lock, timing the wait and, for the outermost hold, how long it is held.
+         */
+        void lock() {
+            CatalogMetrics.LockTimer timer = this.timer;
+            if (timer == CatalogMetrics.LockTimer.NONE) {
+                lock.lock();
+                return;
+            }
+            long start = System.nanoTime();
+            lock.lock();
+            long now = System.nanoTime();
+            timer.waited(now - start);
+            if (lock.getHoldCount() == 1) {
+                holdTimer = timer;
+                lockedAt = now;
+            }
+        }
+
+        void unlock() {
+            if (holdTimer != null && lock.getHoldCount() == 1) {
+                holdTimer.held(System.nanoTime() - lockedAt);
+                holdTimer = null;
+            }
+            lock.unlock();
+        }
+
+        /**
+         * Runs the action while holding this entry's lock.
+         */
+        <T> T withLock(Function<Entry, T> action) {
+            lock();
+            try {
+                return action.apply(this);
+            } finally {
+                unlock();
+            }
+        }
+    }
+}
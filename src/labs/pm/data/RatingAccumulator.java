@@ -0,0 +1,52 @@
+package labs.pm.data;
+
+import java.util.Collection;
+
+/**
+ * {@code RatingAccumulator} keeps a running count, sum and histogram of review ratings,
+ * so adding a review updates the average in constant time instead of re-reading every review.
+ * Not thread safe, guarded by whoever owns it.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class RatingAccumulator {
+    private int count;
+    private long sum;
+    private final int[] histogram = new int[Rating.values().length];
+
+    RatingAccumulator() {
+    }
+
+    RatingAccumulator(Collection<Review> reviews) {
+        reviews.forEach(review -> add(review.getRating()));
+    }
+
+    /**
+     * @param histogram number of reviews per rating, in rating order
+     */
+    RatingAccumulator(int[] histogram) {
+        for (int r = 0; r < histogram.length; r++) {
+            count += histogram[r];
+            sum += (long) r * histogram[r];
+            this.histogram[r] = histogram[r];
+        }
+    }
+
+    void add(Rating rating) {
+        count++;
+        sum += rating.ordinal();
+        histogram[rating.ordinal()]++;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    Rating getRating() {
+        return Rateable.convert((int) Math.round(count == 0 ? 0 : (double) sum / count));
+    }
+
+    RatingSummary snapshot() {
+        return new RatingSummary(count, sum, histogram.clone());
+    }
+}
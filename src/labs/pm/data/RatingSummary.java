@@ -0,0 +1,50 @@
+package labs.pm.data;
+
+import java.util.Arrays;
+
+/**
+ * {@code RatingSummary} is an immutable view of the reviews a product received:
+ * how many there are, the sum of their star values and a histogram over every {@link Rating}.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class RatingSummary {
+    private final int count;
+    private final long sum;
+    private final int[] histogram;
+
+    RatingSummary(int count, long sum, int[] histogram) {
+        this.count = count;
+        this.sum = sum;
+        this.histogram = histogram;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getCount(Rating rating) {
+        return histogram[rating.ordinal()];
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public double getAverage() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * The average rounded to the nearest {@link Rating}, the same way a product rating is derived from its reviews.
+     * @return the rounded average rating
+     */
+    public Rating getRating() {
+        return Rateable.convert((int) Math.round(getAverage()));
+    }
+
+    @Override
+    public String toString() {
+        return count + ", " + getAverage() + ", " + Arrays.toString(histogram);
+    }
+}
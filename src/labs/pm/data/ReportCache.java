@@ -0,0 +1,120 @@
+package labs.pm.data;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@code ReportCache} keeps rendered product reports, as UTF-8 bytes, so a report that has not changed since it was
+ * last written is copied rather than formatted again.
+ * <p>
+ * A report is cached per product and locale together with the {@link ProductStore.Entry#getVersion() version} of the
+ * entry it was rendered from, and the product's best before date, which for drinks moves every day. A lookup only hits
+ * if both still match; storing a newer version replaces the older one, so each product and locale holds one report.
+ * The cache is bounded by the bytes it holds and evicts the least recently used reports first. Reports larger than
+ * an eighth of the capacity are not cached, one busy product with many reviews would otherwise push out all others.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class ReportCache {
+    private final long capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, Report> reports = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * @param capacity bytes of reports to keep, {@code 0} disables the cache
+     */
+    ReportCache(long capacity) {
+        this.capacity = Math.max(capacity, 0);
+    }
+
+    /**
+     * @return {@code true} if a report of about that many bytes would be cached
+     */
+    boolean accepts(long bytes) {
+        return bytes <= capacity / 8;
+    }
+
+    /**
+     * @return the cached report, or {@code null} if there is none for this version and date
+     */
+    byte[] get(int id, String languageTag, long version, LocalDate bestBefore) {
+        lock.lock();
+        try {
+            Report report = reports.get(new Key(id, languageTag));
+            return (report != null && report.version == version && report.bestBefore.equals(bestBefore))
+                    ? report.bytes : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void put(int id, String languageTag, long version, LocalDate bestBefore, byte[] bytes) {
+        if (!accepts(bytes.length)) {
+            return;
+        }
+        lock.lock();
+        try {
+            Report previous = reports.put(new Key(id, languageTag), new Report(version, bestBefore, bytes));
+            size += bytes.length - ((previous == null) ? 0 : previous.bytes.length);
+            for (Iterator<Report> eldest = reports.values().iterator(); size > capacity && eldest.hasNext(); ) {
+                size -= eldest.next().bytes.length;
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Key {
+        private final int id;
+        private final String languageTag;
+
+        Key(int id, String languageTag) {
+            this.id = id;
+            this.languageTag = languageTag;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return id == key.id && languageTag.equals(key.languageTag);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, languageTag);
+        }
+    }
+
+    private static final class Report {
+        private final long version;
+        private final LocalDate bestBefore;
+        private final byte[] bytes;
+
+        Report(long version, LocalDate bestBefore, byte[] bytes) {
+            this.version = version;
+            this.bestBefore = bestBefore;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package labs.pm.data;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code ReportService} runs report jobs on its own bounded pool of I/O threads.
+ * <p>
+ * Jobs are identified by a key; while a job is queued, submitting the same key again
+ * returns the future of that job instead of queuing a duplicate. Once a job starts it no longer takes in new
+ * submissions, it may already have read data that changed since, so the next submission queues a fresh job.
+ * The queue has a fixed capacity, once it is full new jobs fail straight away with a
+ * {@link RejectedExecutionException} so callers feel the backpressure instead of piling up work.
+ * <p>
+ * In {@link ThreadMode#VIRTUAL} every job runs on its own virtual thread, so a job blocked on file I/O holds no
+ * platform thread, and {@code capacity} bounds the jobs queued or running together instead of only the queued ones.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class ReportService {
+    private final ExecutorService executor;
+    private final Semaphore admitted;
+    private final int capacity;
+    private final Map<Object, CompletableFuture<Path>> pending = new ConcurrentHashMap<>();
+
+    ReportService(ThreadMode mode, int threads, int capacity) {
+        this.capacity = capacity;
+        if (mode.effective() == ThreadMode.VIRTUAL) {
+            executor = mode.newExecutor("report-writer", threads);
+            admitted = new Semaphore(capacity);
+        } else {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(capacity), ThreadMode.daemonThreads("report-writer"),
+                    new ThreadPoolExecutor.AbortPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            admitted = null;
+        }
+    }
+
+    CompletableFuture<Path> submit(Object key, Callable<Path> job) {
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> existing = pending.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        created.whenComplete((path, ex) -> pending.remove(key, created));
+        if (admitted != null && !admitted.tryAcquire()) {
+            created.completeExceptionally(new RejectedExecutionException(capacity + " reports are already pending"));
+            return created;
+        }
+        try {
+            executor.execute(() -> {
+                pending.remove(key, created);
+                try {
+                    created.complete(job.call());
+                } catch (Throwable ex) {
+                    created.completeExceptionally(ex);
+                } finally {
+                    if (admitted != null) {
+                        admitted.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            if (admitted != null) {
+                admitted.release();
+            }
+            created.completeExceptionally(ex);
+        }
+        return created;
+    }
+
+    /**
+     * Lets queued and running jobs finish but accepts no new ones.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+}
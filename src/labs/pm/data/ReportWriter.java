@@ -0,0 +1,125 @@
+package labs.pm.data;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@code ReportWriter} streams report text to a caller supplied target one row at a time.
+ * Byte targets get UTF-8 encoded through a single buffer that is reused for the whole report,
+ * so memory use does not depend on how many rows are written. Character targets are written to directly.
+ * Characters that cannot be encoded, such as a lone surrogate in a review comment, are written as a replacement,
+ * as an {@link java.io.OutputStreamWriter} would. A surrogate pair split across two writes is joined again.
+ * Flushing pushes buffered bytes to the target but never closes it, the caller owns the target; it also ends the
+ * text written so far, so a high surrogate still waiting for its pair is written as a replacement.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class ReportWriter implements Flushable {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private final Writer writer;
+    private final WritableByteChannel channel;
+    private final OutputStream stream;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer buffer;
+    private char pending;
+
+    private ReportWriter(Writer writer, WritableByteChannel channel, OutputStream stream) {
+        this.writer = writer;
+        this.channel = channel;
+        this.stream = stream;
+        this.encoder = channel == null ? null : StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffer = channel == null ? null : ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    static ReportWriter of(Writer writer) {
+        return new ReportWriter(writer, null, null);
+    }
+
+    static ReportWriter of(WritableByteChannel channel) {
+        return new ReportWriter(null, channel, null);
+    }
+
+    static ReportWriter of(OutputStream out) {
+        return new ReportWriter(null, Channels.newChannel(out), out);
+    }
+
+    ReportWriter write(CharSequence text) throws IOException {
+        if (writer != null) {
+            writer.append(text);
+            return this;
+        }
+        CharBuffer chars;
+        if (pending != 0) {
+            chars = CharBuffer.wrap(new StringBuilder(text.length() + 1).append(pending).append(text));
+            pending = 0;
+        } else {
+            chars = CharBuffer.wrap(text);
+        }
+        encode(chars, false);
+        if (chars.hasRemaining()) {
+            // a high surrogate at the end, the encoder waits for the low one that the next write brings
+            pending = chars.get();
+        }
+        return this;
+    }
+
+    private void encode(CharBuffer chars, boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, endOfInput);
+            if (result.isOverflow()) {
+                drain();
+            } else if (result.isUnderflow()) {
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    // ends the input, writing a pending high surrogate as a replacement, and readies the encoder for more text
+    private void finish() throws IOException {
+        encode((pending != 0) ? CharBuffer.wrap(new char[]{pending}) : CharBuffer.allocate(0), true);
+        pending = 0;
+        while (encoder.flush(buffer).isOverflow()) {
+            drain();
+        }
+        encoder.reset();
+    }
+
+    ReportWriter line(CharSequence text) throws IOException {
+        return write(text).write(System.lineSeparator());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        } else {
+            finish();
+            drain();
+            if (stream != null) {
+                stream.flush();
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
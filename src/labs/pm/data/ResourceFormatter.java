@@ -0,0 +1,171 @@
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.text.NumberFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * {@code ResourceFormatter} renders products and reviews for one locale.
+ * <p>
+ * The {@code product} and {@code review} patterns are compiled once into immutable templates,
+ * dates use an immutable {@link DateTimeFormatter} and currency formatting borrows a {@link NumberFormat} from a pool,
+ * so one formatter is safely shared by every thread. A pool rather than one instance per thread, because a virtual
+ * thread per request would create and drop a new currency format on every call.
+ * Product header lines are cached by product id, in each catalog's own copy of the formatter made with
+ * {@link #ResourceFormatter(ResourceFormatter)}, which shares the templates and formats. A cached line is only reused for the very product instance
+ * it was rendered from, and only on the day it was rendered, so a rating change (which creates a new instance)
+ * can never be served a stale line. {@link #invalidate(int)} drops the line early to free it, {@link #clear()} drops all.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class ResourceFormatter {
+    private final Locale locale;
+    private final ResourceBundle resources;
+    private final DateTimeFormatter dateFormat;
+    private final Queue<NumberFormat> moneyFormats;
+    private final Template productTemplate;
+    private final Template reviewTemplate;
+    private final Map<Integer, ProductLine> productLines = new ConcurrentHashMap<>();
+
+    ResourceFormatter(Locale locale) {
+        this.locale = locale;
+        resources = ResourceBundle.getBundle("labs.pm.data.resources", locale);
+        dateFormat = DateTimeFormatter.ofLocalizedDate(FormatStyle.SHORT).localizedBy(locale);
+        moneyFormats = new ConcurrentLinkedQueue<>();
+        productTemplate = new Template(resources.getString("product"));
+        reviewTemplate = new Template(resources.getString("review"));
+    }
+
+    /**
+     * A formatter for the same locale that shares the compiled templates and the money format pool
+     * but caches header lines of its own.
+     */
+    ResourceFormatter(ResourceFormatter shared) {
+        locale = shared.locale;
+        resources = shared.resources;
+        dateFormat = shared.dateFormat;
+        moneyFormats = shared.moneyFormats;
+        productTemplate = shared.productTemplate;
+        reviewTemplate = shared.reviewTemplate;
+    }
+
+    Locale getLocale() {
+        return locale;
+    }
+
+    String formatProduct(Product product) {
+        LocalDate bestBefore = product.getBestBefore();
+        ProductLine cached = productLines.get(product.getId());
+        if (cached != null && cached.product == product && cached.bestBefore.equals(bestBefore)) {
+            return cached.line;
+        }
+        String line = productTemplate.format(product.getName(), formatMoney(product.getPrice()),
+                product.getRating().getStars(), dateFormat.format(bestBefore));
+        productLines.put(product.getId(), new ProductLine(product, bestBefore, line));
+        return line;
+    }
+
+    String formatReview(Review review) {
+        return reviewTemplate.format(review.getRating().getStars(), review.getComments());
+    }
+
+    String formatMoney(BigDecimal amount) {
+        NumberFormat moneyFormat = borrowMoneyFormat();
+        try {
+            return moneyFormat.format(amount);
+        } finally {
+            moneyFormats.offer(moneyFormat);
+        }
+    }
+
+    // the pool only grows to the number of threads formatting at the same moment
+    private NumberFormat borrowMoneyFormat() {
+        NumberFormat moneyFormat = moneyFormats.poll();
+        return (moneyFormat != null) ? moneyFormat : NumberFormat.getCurrencyInstance(locale);
+    }
+
+    String getString(String key) {
+        return resources.getString(key);
+    }
+
+    void invalidate(int productId) {
+        productLines.remove(productId);
+    }
+
+    void clear() {
+        productLines.clear();
+    }
+
+    private static final class ProductLine {
+        private final Product product;
+        private final LocalDate bestBefore;
+        private final String line;
+
+        private ProductLine(Product product, LocalDate bestBefore, String line) {
+            this.product = product;
+            this.bestBefore = bestBefore;
+            this.line = line;
+        }
+    }
+
+    /**
+     * A {@link java.text.MessageFormat} pattern compiled into literal text and argument slots.
+     * Supports plain {@code {n}} arguments and MessageFormat quoting; arguments are inserted as text.
+     */
+    static final class Template {
+        private final String[] literals;
+        private final int[] arguments;
+        private final int length;
+
+        Template(String pattern) {
+            List<String> parts = new ArrayList<>();
+            List<Integer> slots = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '\'') {
+                    if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                        literal.append('\'');
+                        i++;
+                    } else {
+                        quoted = !quoted;
+                    }
+                } else if (c == '{' && !quoted) {
+                    int close = pattern.indexOf('}', i);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Unmatched braces in " + pattern);
+                    }
+                    parts.add(literal.toString());
+                    literal.setLength(0);
+                    slots.add(Integer.parseInt(pattern.substring(i + 1, close).trim()));
+                    i = close;
+                } else {
+                    literal.append(c);
+                }
+            }
+            parts.add(literal.toString());
+            literals = parts.toArray(new String[0]);
+            arguments = slots.stream().mapToInt(Integer::intValue).toArray();
+            length = parts.stream().mapToInt(String::length).sum();
+        }
+
+        String format(Object... values) {
+            StringBuilder text = new StringBuilder(length + 16 * arguments.length);
+            for (int i = 0; i < arguments.length; i++) {
+                text.append(literals[i]).append(arguments[i] < values.length ? values[arguments[i]] : "{" + arguments[i] + "}");
+            }
+            return text.append(literals[arguments.length]).toString();
+        }
+    }
+}
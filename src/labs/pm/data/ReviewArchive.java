@@ -0,0 +1,196 @@
+package labs.pm.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@code ReviewArchive} keeps reviews off the heap in append-only, memory-mapped shard files.
+ * <p>
+ * Each record is {@code long previous, byte rating, int comment length, comment UTF-8 bytes}, big endian, where
+ * {@code previous} is the offset of the record before it for the same product. A product is therefore known by the
+ * offset of its last record alone and its reviews are read by walking the chain back, nothing per review stays on heap.
+ * Offsets hold the shard number in the high and the position in the low 32 bits.
+ * <p>
+ * Shards are mapped whole at their full size, so appends and reads are plain memory accesses. Appends are serialised
+ * by the archive; a record can be read by any thread that got its offset through the lock of its product's entry.
+ * Nothing is forced until {@link #force()}: after a crash the archive is cut back to the end recorded with the last
+ * forced state and the journal supplies what came after.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class ReviewArchive implements AutoCloseable {
+    static final long NONE = -1;
+    private static final int SHARD_SIZE = 64 * 1024 * 1024;
+    private static final int HEADER = Long.BYTES + Byte.BYTES + Integer.BYTES;
+    private static final String PREFIX = "reviews-";
+    private static final String SUFFIX = ".shard";
+    private final Path folder;
+    private final List<MappedByteBuffer> shards = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private int position;
+
+    /**
+     * Opens the archive and drops everything written after {@code end}.
+     * @param end offset one past the last record to keep, {@link #NONE} to start empty
+     */
+    ReviewArchive(Path folder, long end) throws IOException {
+        this.folder = folder;
+        Files.createDirectories(folder);
+        int keep = (end == NONE) ? 0 : shard(end) + 1;
+        List<Path> files = list(folder);
+        for (int i = 0; i < files.size(); i++) {
+            if (i < keep && files.get(i).getFileName().toString().equals(fileName(i))) {
+                shards.add(map(files.get(i)));
+            } else {
+                Files.delete(files.get(i));
+            }
+        }
+        if (shards.size() < keep) {
+            throw new IOException("Review archive in " + folder + " is missing shards");
+        }
+        if (end == NONE) {
+            shards.add(map(folder.resolve(fileName(0))));
+            position = 0;
+        } else {
+            position = position(end);
+        }
+    }
+
+    static void delete(Path folder) throws IOException {
+        for (Path file : list(folder)) {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * @return offset of the new record
+     */
+    long append(long previous, Rating rating, String comments) throws IOException {
+        byte[] bytes = comments.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER + bytes.length;
+        if (length > SHARD_SIZE) {
+            throw new IllegalArgumentException("Review of " + bytes.length + " bytes does not fit a shard");
+        }
+        lock.lock();
+        try {
+            if (SHARD_SIZE - position < length) {
+                shards.add(map(folder.resolve(fileName(shards.size()))));
+                position = 0;
+            }
+            ByteBuffer shard = shards.get(shards.size() - 1).duplicate();
+            shard.position(position);
+            shard.putLong(previous).put((byte) rating.ordinal()).putInt(bytes.length).put(bytes);
+            long offset = offset(shards.size() - 1, position);
+            position += length;
+            return offset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the reviews of the chain ending at {@code last}, oldest first
+     */
+    List<Review> read(long last) {
+        List<Review> reviews = new ArrayList<>();
+        for (long offset = last; offset != NONE; ) {
+            ByteBuffer shard = shard(shard(offset)).duplicate();
+            shard.position(position(offset));
+            long previous = shard.getLong();
+            Rating rating = Rateable.convert(shard.get());
+            byte[] bytes = new byte[shard.getInt()];
+            shard.get(bytes);
+            reviews.add(new Review(rating, new String(bytes, StandardCharsets.UTF_8)));
+            offset = previous;
+        }
+        Collections.reverse(reviews);
+        return reviews;
+    }
+
+    /**
+     * @return offset one past the last record appended so far
+     */
+    long getEnd() {
+        lock.lock();
+        try {
+            return offset(shards.size() - 1, position);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes every appended record through to disk.
+     */
+    void force() {
+        lock.lock();
+        try {
+            shards.forEach(MappedByteBuffer::force);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    private MappedByteBuffer shard(int shard) {
+        lock.lock();
+        try {
+            return shards.get(shard);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SHARD_SIZE);
+        }
+    }
+
+    private static List<Path> list(Path folder) throws IOException {
+        if (Files.notExists(folder)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String fileName(int shard) {
+        return PREFIX + String.format("%05d", shard) + SUFFIX;
+    }
+
+    private static long offset(int shard, int position) {
+        return ((long) shard << 32) | position;
+    }
+
+    private static int shard(long offset) {
+        return (int) (offset >>> 32);
+    }
+
+    private static int position(long offset) {
+        return (int) offset;
+    }
+}
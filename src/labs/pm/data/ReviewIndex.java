@@ -0,0 +1,126 @@
+package labs.pm.data;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@code ReviewIndex} keeps the reviews of one product in report order without ever sorting them:
+ * one bucket per {@link Rating} holding the positions of its reviews in the product's review list.
+ * <p>
+ * Reports list the best rating first, as {@link Review#compareTo(Review)} orders them, and within a rating the oldest
+ * review first. Adding a review appends its position to the end of its bucket, so adding is O(1) and a position,
+ * once handed out, never moves. That makes a cursor, the rank of a bucket and an index into it, stable while reviews
+ * keep coming: paging on from a cursor never repeats or skips a review that was there when the cursor was taken.
+ * Skipping to an offset only steps over whole buckets, so any page is found in constant time.
+ * <p>
+ * Not thread safe, it is guarded by the lock of its {@link ProductStore.Entry}.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class ReviewIndex {
+    /** cursor of the first review in report order */
+    static final long START = 0;
+    /** cursor past the last review */
+    static final long END = -1;
+    private static final Rating[] ORDER = reportOrder();
+    private static final int[] EMPTY = new int[0];
+    private final int[][] positions = new int[ORDER.length][];
+    private final int[] counts = new int[ORDER.length];
+
+    /**
+     * Indexes an existing list of reviews, oldest first.
+     */
+    ReviewIndex(List<Review> reviews) {
+        Arrays.fill(positions, EMPTY);
+        for (int i = 0; i < reviews.size(); i++) {
+            add(reviews.get(i).getRating(), i);
+        }
+    }
+
+    void add(Rating rating, int position) {
+        int rank = rank(rating);
+        if (counts[rank] == positions[rank].length) {
+            positions[rank] = Arrays.copyOf(positions[rank], Math.max(4, counts[rank] << 1));
+        }
+        positions[rank][counts[rank]++] = position;
+    }
+
+    int count(Rating rating) {
+        return counts[rank(rating)];
+    }
+
+    /**
+     * @return the cursor {@code offset} reviews past the start, counting only the ratings given
+     */
+    long skip(Set<Rating> ratings, long offset) {
+        for (int rank = 0; rank < ORDER.length; rank++) {
+            if (ratings.contains(ORDER[rank])) {
+                if (offset < counts[rank]) {
+                    return cursor(rank, (int) offset);
+                }
+                offset -= counts[rank];
+            }
+        }
+        return END;
+    }
+
+    /**
+     * @return the current size of every bucket; buckets only grow, so paging up to these bounds later
+     * sees exactly the reviews there are now
+     */
+    int[] bounds() {
+        return counts.clone();
+    }
+
+    /**
+     * Adds up to {@code limit} reviews with one of the ratings, from the cursor on, to {@code out}.
+     * @param reviews the list this index was built over
+     * @return the cursor to continue from, {@link #END} if there are no more reviews
+     */
+    long page(List<Review> reviews, Set<Rating> ratings, long cursor, int limit, List<Review> out) {
+        return page(reviews, ratings, cursor, limit, counts, out);
+    }
+
+    /**
+     * As {@link #page(List, Set, long, int, List)}, but only over the reviews within bounds taken earlier by {@link #bounds()}.
+     */
+    long page(List<Review> reviews, Set<Rating> ratings, long cursor, int limit, int[] bounds, List<Review> out) {
+        if (cursor == END) {
+            return END;
+        }
+        int rank = (int) (cursor >>> 32);
+        int index = (int) cursor;
+        int taken = 0;
+        for (; rank < ORDER.length; rank++, index = 0) {
+            if (!ratings.contains(ORDER[rank])) {
+                continue;
+            }
+            for (; index < bounds[rank]; index++) {
+                if (taken == limit) {
+                    return cursor(rank, index);
+                }
+                out.add(reviews.get(positions[rank][index]));
+                taken++;
+            }
+        }
+        return END;
+    }
+
+    private static long cursor(int rank, int index) {
+        return ((long) rank << 32) | index;
+    }
+
+    private static int rank(Rating rating) {
+        return ORDER.length - 1 - rating.ordinal();
+    }
+
+    private static Rating[] reportOrder() {
+        Rating[] ratings = Rating.values();
+        Rating[] order = new Rating[ratings.length];
+        for (int i = 0; i < ratings.length; i++) {
+            order[i] = ratings[ratings.length - 1 - i];
+        }
+        return order;
+    }
+}
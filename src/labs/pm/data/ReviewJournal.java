@@ -0,0 +1,458 @@
+package labs.pm.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * {@code ReviewJournal} is an append-only log of every review added at runtime.
+ * <p>
+ * Each review gets a sequence number when it is appended and is written by a single writer thread,
+ * which drains everything queued since its last pass and writes it as one batch (group commit).
+ * When the batch is forced to disk depends on the {@link SyncPolicy}.
+ * The log is split in numbered segments that sort in write order; {@link #rotate()} seals the active
+ * segment so it can be folded into the review files and deleted, the highest folded sequence is kept in a checkpoint.
+ * <p>
+ * Record layout: int payload length, int CRC32C of the payload, then the payload:
+ * long sequence, int product id, byte rating, comment UTF-8 bytes.
+ * A torn record at the end of the last segment is cut off when the journal is opened.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class ReviewJournal implements Closeable {
+    private static final Logger log = Logger.getLogger(ReviewJournal.class.getName());
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    private static final String CHECKPOINT = "journal.checkpoint";
+    private static final int HEADER = Integer.BYTES * 2;
+    private static final int FIXED_PAYLOAD = Long.BYTES + Integer.BYTES + Byte.BYTES;
+    private static final int BATCH_BUFFER = 64 * 1024;
+
+    /**
+     * When appended reviews are forced to disk.
+     */
+    enum SyncPolicy {
+        /** every batch is forced before its writers are released */
+        ALWAYS,
+        /** batches are forced once the configured number of milliseconds has passed since the last force */
+        INTERVAL,
+        /** batches are forced once the configured number of records has been written since the last force */
+        RECORDS
+    }
+
+    private final Path folder;
+    private final SyncPolicy policy;
+    private final long intervalNanos;
+    private final int syncRecords;
+    private static final Write CLOSE = new Write(new Record(-1, -1, Rating.NOT_RATED, ""));
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock channelLock = new ReentrantLock();
+    private final Thread writer;
+    private final Thread shutdownHook = new Thread(this::close, "review-journal-shutdown");
+    private FileChannel channel;
+    private Path activeSegment;
+    private long nextSequence;
+    private volatile boolean open = true;
+
+    ReviewJournal(Path folder, SyncPolicy policy, long intervalMillis, int syncRecords) throws IOException {
+        this.folder = folder;
+        this.policy = policy;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.syncRecords = Math.max(syncRecords, 1);
+        Files.createDirectories(folder);
+        long last = getCheckpoint();
+        List<Path> segments = segments();
+        for (int i = 0; i < segments.size(); i++) {
+            last = Math.max(last, scan(segments.get(i), i == segments.size() - 1));
+        }
+        nextSequence = last + 1;
+        channel = openSegment(segments.isEmpty() ? nextSequence : segmentNumber(segments.get(segments.size() - 1)));
+        writer = new Thread(this::writeLoop, "review-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    SyncPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the sequence of the last appended review, written or not
+     */
+    long getLastSequence() {
+        appendLock.lock();
+        try {
+            return nextSequence - 1;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Queues a review for the writer thread.
+     * Callers that append while holding a product lock get sequences in the same order as their in-memory changes.
+     * @return the pending write, its future completes once the record is written and, for {@link SyncPolicy#ALWAYS}, forced;
+     * {@code null} once the journal is closed
+     */
+    Write append(int productId, Rating rating, String comments) {
+        appendLock.lock();
+        try {
+            if (!open) {
+                return null;
+            }
+            Write write = new Write(new Record(nextSequence++, productId, rating, comments));
+            queue.add(write);
+            return write;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Queues the reviews of one product as consecutive records, taking the append lock once.
+     * @return the pending write of the last review, written records complete in sequence order;
+     * {@code null} once the journal is closed
+     */
+    Write appendAll(int productId, List<Review> reviews) {
+        appendLock.lock();
+        try {
+            if (!open) {
+                return null;
+            }
+            Write write = null;
+            for (Review review : reviews) {
+                write = new Write(new Record(nextSequence++, productId, review.getRating(), review.getComments()));
+                queue.add(write);
+            }
+            return write;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Reads every record with a sequence greater than {@code after}, in sequence order.
+     */
+    void replay(long after, Consumer<Record> action) throws IOException {
+        for (Path segment : segments()) {
+            read(segment, record -> {
+                if (record.getSequence() > after) {
+                    action.accept(record);
+                }
+            });
+        }
+    }
+
+    /**
+     * Seals the active segment, unless it is still empty, and starts a new one.
+     * The writer writes in sequence order, so every record in a sealed segment precedes every record written later.
+     * @return the sealed segments, oldest first
+     */
+    List<Path> rotate() throws IOException {
+        channelLock.lock();
+        try {
+            List<Path> sealed = segments();
+            sealed.remove(activeSegment);
+            if (channel.size() > 0) {
+                channel.force(true);
+                channel.close();
+                sealed.add(activeSegment);
+                long next;
+                appendLock.lock();
+                try {
+                    next = nextSequence;
+                } finally {
+                    appendLock.unlock();
+                }
+                channel = openSegment(Math.max(next, segmentNumber(activeSegment) + 1));
+            }
+            return sealed;
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * @return the highest sequence already folded into the review files
+     */
+    long getCheckpoint() throws IOException {
+        Path file = folder.resolve(CHECKPOINT);
+        return Files.exists(file) ? Long.parseLong(Files.readString(file).trim()) : 0;
+    }
+
+    void setCheckpoint(long sequence) throws IOException {
+        Path part = folder.resolve(CHECKPOINT + ".part");
+        Files.writeString(part, Long.toString(sequence));
+        Files.move(part, folder.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    void read(Path segment, Consumer<Record> action) throws IOException {
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            Record record;
+            while ((record = next(buffer)) != null) {
+                action.accept(record);
+            }
+        }
+    }
+
+    /**
+     * Flushes everything queued so far, forces it and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            if (!open) {
+                return;
+            }
+            open = false;
+            if (Thread.currentThread() != shutdownHook) {
+                try {
+                    // journals of catalogs closed early must not pile up as hooks
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException ex) {
+                    // already shutting down, the hook is running or about to and will find the journal closed
+                }
+            }
+            // last in the queue, the writer stops once it gets there
+            queue.add(CLOSE);
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        channelLock.lock();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            log.log(Level.SEVERE, "Error closing review journal", ex);
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_BUFFER);
+        List<Write> batch = new ArrayList<>();
+        int unsynced = 0;
+        long lastSync = System.nanoTime();
+        boolean closing = false;
+        while (!closing) {
+            try {
+                Write first = (policy == SyncPolicy.INTERVAL) ? queue.poll(intervalNanos, TimeUnit.NANOSECONDS) : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                }
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            closing = batch.remove(CLOSE);
+            try {
+                channelLock.lock();
+                try {
+                    for (Write write : batch) {
+                        byte[] comments = write.record.comments.getBytes(StandardCharsets.UTF_8);
+                        int size = HEADER + FIXED_PAYLOAD + comments.length;
+                        if (buffer.remaining() < size) {
+                            flush(buffer);
+                            if (buffer.capacity() < size) {
+                                buffer = ByteBuffer.allocateDirect(size);
+                            }
+                        }
+                        encode(buffer, write.record, comments);
+                    }
+                    flush(buffer);
+                    unsynced += batch.size();
+                    boolean force = policy == SyncPolicy.ALWAYS
+                            || (policy == SyncPolicy.RECORDS && unsynced >= syncRecords)
+                            || (policy == SyncPolicy.INTERVAL && System.nanoTime() - lastSync >= intervalNanos)
+                            || closing;
+                    if (force && unsynced > 0) {
+                        channel.force(false);
+                        lastSync = System.nanoTime();
+                        unsynced = 0;
+                    }
+                } finally {
+                    channelLock.unlock();
+                }
+                batch.forEach(write -> write.done.complete(null));
+            } catch (IOException | RuntimeException ex) {
+                log.log(Level.SEVERE, "Error writing review journal", ex);
+                batch.forEach(write -> write.done.completeExceptionally(ex));
+            }
+            batch.clear();
+        }
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void encode(ByteBuffer buffer, Record record, byte[] comments) {
+        int length = FIXED_PAYLOAD + comments.length;
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.putLong(record.sequence);
+        buffer.putInt(record.productId);
+        buffer.put((byte) record.rating.ordinal());
+        buffer.put(comments);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(start + HEADER).limit(start + HEADER + length));
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+    }
+
+    /**
+     * @return the next intact record, or {@code null} at the end of the segment or at a torn record
+     */
+    private static Record next(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER + FIXED_PAYLOAD) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        if (length < FIXED_PAYLOAD || length > buffer.remaining() - HEADER) {
+            return null;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(start + HEADER).limit(start + HEADER + length));
+        if ((int) crc.getValue() != buffer.getInt(start + Integer.BYTES)) {
+            return null;
+        }
+        buffer.position(start + HEADER);
+        long sequence = buffer.getLong();
+        int productId = buffer.getInt();
+        Rating rating = Rateable.convert(buffer.get());
+        byte[] comments = new byte[length - FIXED_PAYLOAD];
+        buffer.get(comments);
+        return new Record(sequence, productId, rating, new String(comments, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the last sequence in the segment, the tail is truncated at the first torn record if requested
+     */
+    private long scan(Path segment, boolean truncate) throws IOException {
+        long last = 0;
+        long end;
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            Record record;
+            while ((record = next(buffer)) != null) {
+                last = record.getSequence();
+            }
+            end = buffer.position();
+        }
+        if (truncate && end < Files.size(segment)) {
+            log.log(Level.WARNING, "Truncating torn journal tail of {0} at {1}", new Object[]{segment, end});
+            try (FileChannel out = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                out.truncate(end);
+            }
+        }
+        return last;
+    }
+
+    List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        activeSegment = folder.resolve(PREFIX + String.format("%019d", number) + SUFFIX);
+        return FileChannel.open(activeSegment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * One journaled review.
+     */
+    static final class Record {
+        private final long sequence;
+        private final int productId;
+        private final Rating rating;
+        private final String comments;
+
+        Record(long sequence, int productId, Rating rating, String comments) {
+            this.sequence = sequence;
+            this.productId = productId;
+            this.rating = rating;
+            this.comments = comments;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        int getProductId() {
+            return productId;
+        }
+
+        Rating getRating() {
+            return rating;
+        }
+
+        String getComments() {
+            return comments;
+        }
+    }
+
+    /**
+     * A record waiting for the writer thread.
+     */
+    static final class Write {
+        private final Record record;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Write(Record record) {
+            this.record = record;
+        }
+
+        long getSequence() {
+            return record.sequence;
+        }
+
+        CompletableFuture<Void> getDone() {
+            return done;
+        }
+    }
+}
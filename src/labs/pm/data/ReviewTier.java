@@ -0,0 +1,225 @@
+package labs.pm.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * {@code ReviewTier} keeps the reviews of a catalog in a {@link ReviewArchive} and only the reviews of recently read
+ * products on the heap.
+ * <p>
+ * An {@link ProductStore.Entry} attached to the tier is either hot, holding its review list, or cold, holding only the
+ * offset of its last archived review. Reading the reviews of a cold entry loads them from the archive and makes it hot;
+ * past {@code hotProducts} hot entries the least recently read one goes cold again. New reviews go to the archive
+ * whether or not the entry is hot, so going cold never writes anything.
+ * <p>
+ * {@link #checkpoint(ProductStore, long)} forces the archive and writes an index of every entry's last offset,
+ * rating histogram and journal sequence. A restart with a current index reads only that index instead of every review.
+ * Layout of the index, big endian: {@code int magic, short version, long journal sequence, int entry count},
+ * then per entry {@code int id, long last offset, long journal sequence, int histogram[6]},
+ * then {@code long archive end} and an {@code int} CRC32C of everything before it.
+ * @author zackwilcox
+ * @version 1.0
+ */
+final class ReviewTier implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(ReviewTier.class.getName());
+    private static final int MAGIC = 0x48535249;
+    private static final short VERSION = 1;
+    private static final String INDEX = "reviews.index";
+    private static final int RATINGS = Rating.values().length;
+    private final Path folder;
+    private final int hotProducts;
+    private final ReviewArchive archive;
+    private final Map<Integer, ProductStore.Entry> indexed = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<ProductStore.Entry, Boolean> hot = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Opens the tier, keeping the archive if its index is readable and covers the journal up to {@code checkpoint},
+     * otherwise starting with an empty archive.
+     */
+    ReviewTier(Path folder, int hotProducts, long checkpoint) throws IOException {
+        this.folder = folder;
+        this.hotProducts = Math.max(hotProducts, 1);
+        Files.createDirectories(folder);
+        long end = ReviewArchive.NONE;
+        Path indexFile = folder.resolve(INDEX);
+        if (Files.exists(indexFile)) {
+            try {
+                end = readIndex(indexFile, checkpoint);
+            } catch (IOException | RuntimeException ex) {
+                indexed.clear();
+                log.log(Level.WARNING, "Review index " + indexFile + " is unreadable, rebuilding the review archive", ex);
+            }
+        }
+        if (end == ReviewArchive.NONE) {
+            Files.deleteIfExists(indexFile);
+            ReviewArchive.delete(folder);
+        }
+        archive = new ReviewArchive(folder, end);
+    }
+
+    private long readIndex(Path indexFile, long checkpoint) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        int bodyLength = in.limit() - Integer.BYTES;
+        CRC32C crc = new CRC32C();
+        crc.update(in.duplicate().limit(bodyLength));
+        if (bodyLength < 0 || (int) crc.getValue() != in.getInt(bodyLength)) {
+            throw new IOException("Review index checksum mismatch");
+        }
+        if (in.getInt() != MAGIC || in.getShort() != VERSION) {
+            throw new IOException("Not a review index");
+        }
+        long sequence = in.getLong();
+        if (sequence < checkpoint) {
+            log.log(Level.INFO, "Review index predates journal checkpoint {0}, rebuilding the review archive", checkpoint);
+            return ReviewArchive.NONE;
+        }
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            int id = in.getInt();
+            long last = in.getLong();
+            long journalSequence = in.getLong();
+            int[] histogram = new int[RATINGS];
+            for (int r = 0; r < RATINGS; r++) {
+                histogram[r] = in.getInt();
+            }
+            indexed.put(id, new ProductStore.Entry(id, new RatingAccumulator(histogram), last, journalSequence, this));
+        }
+        return in.getLong();
+    }
+
+    /**
+     * Hands out the archived entry for a product the index knows, each one once, so the loader can skip its review file.
+     * @return a cold entry for the product, or {@code null} if its reviews are not archived
+     */
+    ProductStore.Entry claim(Product product) {
+        ProductStore.Entry entry;
+        lock.lock();
+        try {
+            entry = indexed.remove(product.getId());
+        } finally {
+            lock.unlock();
+        }
+        if (entry != null) {
+            entry.attach(product);
+        }
+        return entry;
+    }
+
+    /**
+     * Moves the reviews of every entry not yet attached to the tier into the archive and leaves the entry cold.
+     * @return number of reviews archived
+     */
+    long adopt(ProductStore store) throws IOException {
+        long adopted = 0;
+        for (ProductStore.Entry entry : store.entries().collect(Collectors.toList())) {
+            entry.lock();
+            try {
+                if (!entry.isTiered()) {
+                    long last = ReviewArchive.NONE;
+                    for (Review review : entry.getReviews()) {
+                        last = archive.append(last, review.getRating(), review.getComments());
+                        adopted++;
+                    }
+                    entry.tier(this, last);
+                }
+            } finally {
+                entry.unlock();
+            }
+        }
+        return adopted;
+    }
+
+    long append(long previous, Review review) throws IOException {
+        return archive.append(previous, review.getRating(), review.getComments());
+    }
+
+    /**
+     * Reads archived reviews without making the entry hot.
+     */
+    List<Review> read(long last) {
+        return archive.read(last);
+    }
+
+    /**
+     * Records that the entry was just read and sends the least recently read entries over the limit cold.
+     * Entries busy on another thread are skipped, they are tried again next time.
+     */
+    void touch(ProductStore.Entry entry) {
+        lock.lock();
+        try {
+            hot.put(entry, Boolean.TRUE);
+            Iterator<ProductStore.Entry> eldest = hot.keySet().iterator();
+            int excess = hot.size() - hotProducts;
+            while (excess > 0 && eldest.hasNext()) {
+                ProductStore.Entry candidate = eldest.next();
+                if (candidate != entry && candidate.tryEvict()) {
+                    eldest.remove();
+                }
+                excess--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the archive and writes a new index of the store.
+     * @param journalSequence last journal sequence appended before this call, every review up to it is archived
+     */
+    void checkpoint(ProductStore store, long journalSequence) throws IOException {
+        Path indexFile = folder.resolve(INDEX);
+        Path part = folder.resolve(INDEX + ".part");
+        List<ProductStore.Entry> entries = store.entries().collect(Collectors.toList());
+        CheckedOutputStream checked = new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(part)), new CRC32C());
+        try (DataOutputStream out = new DataOutputStream(checked)) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(journalSequence);
+            out.writeInt(entries.size());
+            for (ProductStore.Entry entry : entries) {
+                entry.lock();
+                try {
+                    out.writeInt(entry.getId());
+                    out.writeLong(entry.getReviewChain());
+                    out.writeLong(entry.getJournalSequence());
+                    RatingSummary summary = entry.getRatings().snapshot();
+                    for (Rating rating : Rating.values()) {
+                        out.writeInt(summary.getCount(rating));
+                    }
+                } finally {
+                    entry.unlock();
+                }
+            }
+            // taken after every chain above, so it covers them; records appended later are cut off on restart and replayed
+            long end = archive.getEnd();
+            archive.force();
+            out.writeLong(end);
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+        }
+        Files.move(part, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void close() {
+        archive.close();
+    }
+}
@@ -0,0 +1,87 @@
+package labs.pm.data;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@code ThreadMode} chooses the kind of thread blocking work runs on.
+ * <p>
+ * {@link #VIRTUAL} starts a virtual thread per task. The project targets Java 11, so virtual threads are reached
+ * through reflection and are only available when running on Java 21 or later; on older runtimes it falls back to
+ * {@link #PLATFORM} with a warning, so the same configuration runs everywhere.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public enum ThreadMode {
+    PLATFORM, VIRTUAL;
+
+    private static final Logger log = Logger.getLogger(ThreadMode.class.getName());
+    private static final Method VIRTUAL_EXECUTOR = lookupVirtualExecutor();
+
+    /**
+     * @return the mode named, case insensitively
+     * @throws IllegalArgumentException if there is no such mode
+     */
+    public static ThreadMode of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @return {@code true} if this runtime can start virtual threads
+     */
+    public static boolean isVirtualAvailable() {
+        return VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * @return the mode tasks will actually run in on this runtime
+     */
+    public ThreadMode effective() {
+        return (this == VIRTUAL && !isVirtualAvailable()) ? PLATFORM : this;
+    }
+
+    /**
+     * Creates an executor for blocking tasks.
+     * In platform mode it is a fixed pool of {@code threads} daemon threads named {@code name-n};
+     * in virtual mode every task gets its own virtual thread and {@code threads} is ignored,
+     * callers bound concurrency themselves where they need to.
+     */
+    public ExecutorService newExecutor(String name, int threads) {
+        if (this == VIRTUAL) {
+            if (isVirtualAvailable()) {
+                try {
+                    return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+                } catch (IllegalAccessException | InvocationTargetException ex) {
+                    log.log(Level.WARNING, "Could not start virtual threads, using platform threads", ex);
+                }
+            } else {
+                log.log(Level.WARNING, "Virtual threads need Java 21 or later, using platform threads");
+            }
+        }
+        return Executors.newFixedThreadPool(threads, daemonThreads(name));
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static Method lookupVirtualExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+}
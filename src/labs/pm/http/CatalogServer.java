@@ -0,0 +1,453 @@
+package labs.pm.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import labs.pm.data.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@code CatalogServer} serves a {@link ProductManager} over HTTP with the JDK's built-in server.
+ * <pre>
+ * GET  /products?q=&amp;rating=4,5&amp;minPrice=&amp;maxPrice=&amp;type=food|drink&amp;order=&amp;offset=0&amp;limit=20
+ * GET  /products/{id}
+ * GET  /products/{id}/reviews?rating=5&amp;offset=0&amp;limit=20
+ * POST /products/{id}/reviews    {"rating": 4, "comments": "..."}
+ * GET  /products/{id}/report?lang=en-GB
+ * GET  /discounts?lang=en-GB
+ * GET  /metrics
+ * </pre>
+ * With {@code q} the listing is a name search, see {@link ProductManager#searchProducts(String, ProductQuery)}.
+ * {@code order} is one of {@code id}, {@code rating}, {@code rating-asc}, {@code price} or {@code price-desc}.
+ * Without {@code lang} the language comes from {@code Accept-Language}, falling back to {@code en-GB}.
+ * <p>
+ * Responses are streamed with chunked encoding as they are written: JSON through a {@link JsonWriter}, reports
+ * through {@link ProductManager#writeProductReport(int, String, java.io.OutputStream)}. Connections are kept alive
+ * between requests. Handlers run in the given {@link ThreadMode}, a virtual thread per request where available,
+ * so a handler blocked on an entry lock or a slow client never holds up the others.
+ * <p>
+ * The headers and each chunk of a streamed response go out as separate small writes, so with Nagle's algorithm on
+ * every response waits some 40 ms for the client's delayed ACK. Launch with {@code -Dsun.net.httpserver.nodelay=true},
+ * or set it before the first server is created as {@code Shop --serve} does; the JDK reads it once.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class CatalogServer implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(CatalogServer.class.getName());
+    private static final String DEFAULT_LANGUAGE = "en-GB";
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 10_000;
+    private static final int MAX_BODY = 64 * 1024;
+    private static final Map<String, Comparator<Product>> ORDERS = Map.of(
+            "id", ProductQuery.BY_ID,
+            "rating", ProductQuery.BY_RATING,
+            "rating-asc", ProductQuery.BY_RATING_ASCENDING,
+            "price", ProductQuery.BY_PRICE,
+            "price-desc", ProductQuery.BY_PRICE_DESCENDING);
+    private final ProductManager pm;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts serving the catalog.
+     * @param threads the kind of thread handlers run on
+     * @param platformThreads number of handler threads in platform mode, ignored for virtual threads
+     */
+    public CatalogServer(ProductManager pm, InetSocketAddress address, ThreadMode threads, int platformThreads)
+            throws IOException {
+        this.pm = pm;
+        server = HttpServer.create(address, 0);
+        executor = threads.newExecutor("catalog-http", platformThreads);
+        server.setExecutor(executor);
+        server.createContext("/products", exchange -> handle(exchange, this::products));
+        server.createContext("/discounts", exchange -> handle(exchange, this::discounts));
+        server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+        server.start();
+        log.log(Level.INFO, "Serving catalog on {0} with {1} threads",
+                new Object[]{server.getAddress(), threads.effective().name().toLowerCase(Locale.ROOT)});
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests, gives running ones a second to finish and stops the handler threads.
+     * The catalog is not closed.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Route {
+        void handle(HttpExchange exchange) throws IOException, ProductManagerException, HttpError;
+    }
+
+    /**
+     * An error to answer with, rather than to log.
+     */
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange, Route route) {
+        try {
+            route.handle(exchange);
+        } catch (HttpError ex) {
+            error(exchange, ex.status, ex.getMessage());
+        } catch (ProductManagerException ex) {
+            error(exchange, 404, ex.getMessage());
+        } catch (IllegalArgumentException ex) {
+            error(exchange, 400, ex.getMessage());
+        } catch (IOException ex) {
+            log.log(Level.FINE, ex, () -> "Error answering " + exchange.getRequestURI());
+        } catch (RuntimeException ex) {
+            log.log(Level.SEVERE, "Error answering " + exchange.getRequestURI(), ex);
+            error(exchange, 500, "Internal error");
+        } finally {
+            // reads what is left of the request so the connection can be kept alive for the next one
+            exchange.close();
+        }
+    }
+
+    private void products(HttpExchange exchange) throws IOException, ProductManagerException, HttpError {
+        String rest = exchange.getRequestURI().getPath().substring("/products".length());
+        String[] path = rest.split("/");
+        if (!rest.isEmpty() && !rest.startsWith("/")) {
+            throw new HttpError(404, "No such resource " + exchange.getRequestURI().getPath());
+        }
+        if (path.length <= 1) {
+            allow(exchange, "GET");
+            listProducts(exchange, parameters(exchange.getRequestURI()));
+            return;
+        }
+        int id = id(path[1]);
+        if (path.length == 2) {
+            allow(exchange, "GET");
+            product(exchange, id);
+        } else if (path.length == 3 && path[2].equals("reviews")) {
+            if (exchange.getRequestMethod().equals("POST")) {
+                reviewProduct(exchange, id);
+            } else {
+                allow(exchange, "GET", "POST");
+                reviews(exchange, id, parameters(exchange.getRequestURI()));
+            }
+        } else if (path.length == 3 && path[2].equals("report")) {
+            allow(exchange, "GET");
+            report(exchange, id);
+        } else {
+            throw new HttpError(404, "No such resource " + exchange.getRequestURI().getPath());
+        }
+    }
+
+    private void listProducts(HttpExchange exchange, Map<String, String> parameters) throws IOException, HttpError {
+        int offset = integer(parameters, "offset", 0);
+        ProductQuery query = ProductQuery.all().page(offset, limit(parameters));
+        List<Rating> ratings = ratings(parameters.get("rating"));
+        if (!ratings.isEmpty()) {
+            query.rating(ratings.get(0), ratings.subList(1, ratings.size()).toArray(new Rating[0]));
+        }
+        String minPrice = parameters.get("minPrice");
+        String maxPrice = parameters.get("maxPrice");
+        if (minPrice != null || maxPrice != null) {
+            query.priceBetween((minPrice == null) ? null : new BigDecimal(minPrice),
+                    (maxPrice == null) ? null : new BigDecimal(maxPrice));
+        }
+        String type = parameters.get("type");
+        if (type != null) {
+            query.type(ProductQuery.Type.valueOf(type.toUpperCase(Locale.ROOT)));
+        }
+        String order = parameters.get("order");
+        if (order != null) {
+            Comparator<Product> comparator = ORDERS.get(order);
+            if (comparator == null) {
+                throw new HttpError(400, "order must be one of " + ORDERS.keySet());
+            }
+            query.orderBy(comparator);
+        }
+        String text = parameters.get("q");
+        List<Product> products = (text == null) ? pm.findProducts(query) : pm.searchProducts(text, query);
+        try (JsonWriter json = json(exchange, 200)) {
+            json.beginObject().name("offset").value(offset).name("products").beginArray();
+            for (Product product : products) {
+                writeProduct(json.beginObject(), product).endObject();
+            }
+            json.endArray().endObject();
+        }
+    }
+
+    private void product(HttpExchange exchange, int id) throws IOException, ProductManagerException {
+        Product product = pm.findProduct(id);
+        RatingSummary ratings = pm.getRatingSummary(id);
+        try (JsonWriter json = json(exchange, 200)) {
+            writeProduct(json.beginObject(), product)
+                    .name("reviews").value(ratings.getCount())
+                    .name("averageRating").value(ratings.getAverage())
+                    .endObject();
+        }
+    }
+
+    private void reviews(HttpExchange exchange, int id, Map<String, String> parameters)
+            throws IOException, ProductManagerException, HttpError {
+        int offset = integer(parameters, "offset", 0);
+        List<Review> reviews = pm.findReviews(id, offset, limit(parameters),
+                ratings(parameters.get("rating")).toArray(new Rating[0]));
+        try (JsonWriter json = json(exchange, 200)) {
+            json.beginObject().name("id").value(id).name("offset").value(offset).name("reviews").beginArray();
+            for (Review review : reviews) {
+                json.beginObject()
+                        .name("rating").value(review.getRating().ordinal())
+                        .name("stars").value(review.getRating().getStars())
+                        .name("comments").value(review.getComments())
+                        .endObject();
+            }
+            json.endArray().endObject();
+        }
+    }
+
+    private void reviewProduct(HttpExchange exchange, int id) throws IOException, HttpError {
+        Map<String, Object> body = JsonReader.readObject(body(exchange));
+        Object rating = body.get("rating");
+        Object comments = body.get("comments");
+        if (!(rating instanceof BigDecimal) || !(comments == null || comments instanceof String)) {
+            throw new HttpError(400, "Expected {\"rating\": 1-5, \"comments\": \"...\"}");
+        }
+        int stars;
+        try {
+            stars = ((BigDecimal) rating).intValueExact();
+        } catch (ArithmeticException ex) {
+            throw new HttpError(400, "rating must be a whole number of stars");
+        }
+        if (stars < 1 || stars >= Rating.values().length) {
+            throw new HttpError(400, "rating must be between 1 and " + (Rating.values().length - 1));
+        }
+        Product product = pm.reviewProduct(id, Rating.values()[stars], (comments == null) ? "" : (String) comments);
+        if (product == null) {
+            throw new HttpError(404, "Product with id " + id + " could not be reviewed");
+        }
+        try (JsonWriter json = json(exchange, 201)) {
+            writeProduct(json.beginObject(), product).endObject();
+        }
+    }
+
+    private void report(HttpExchange exchange, int id) throws IOException, ProductManagerException {
+        String languageTag = languageTag(exchange);
+        // look the product up before the headers go out, a missing product is still a 404
+        pm.findProduct(id);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().set("Content-Language", languageTag);
+        exchange.sendResponseHeaders(200, 0);
+        pm.writeProductReport(id, languageTag, exchange.getResponseBody());
+    }
+
+    private void discounts(HttpExchange exchange) throws IOException, HttpError {
+        allow(exchange, "GET");
+        String languageTag = languageTag(exchange);
+        Map<String, String> discounts = pm.getDiscounts(languageTag);
+        exchange.getResponseHeaders().set("Content-Language", languageTag);
+        try (JsonWriter json = json(exchange, 200)) {
+            json.beginObject();
+            for (Map.Entry<String, String> discount : discounts.entrySet()) {
+                json.name(discount.getKey()).value(discount.getValue());
+            }
+            json.endObject();
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException, HttpError {
+        allow(exchange, "GET");
+        MetricsSnapshot metrics = pm.getMetrics();
+        try (JsonWriter json = json(exchange, 200)) {
+            json.beginObject()
+                    .name("timestamp").value(metrics.getTimestamp())
+                    .name("products").value(metrics.getProducts())
+                    .name("reviews").value(metrics.getReviews())
+                    .name("operations").beginObject();
+            for (Map.Entry<MetricsSnapshot.Operation, LatencyStats> latency : metrics.getLatencies().entrySet()) {
+                LatencyStats stats = latency.getValue();
+                json.name(latency.getKey().name().toLowerCase(Locale.ROOT)).beginObject()
+                        .name("count").value(stats.getCount())
+                        .name("errors").value(metrics.getErrors(latency.getKey()))
+                        .name("meanNanos").value(stats.getMean())
+                        .name("p50Nanos").value(stats.getP50())
+                        .name("p99Nanos").value(stats.getP99())
+                        .name("maxNanos").value(stats.getMax())
+                        .endObject();
+            }
+            json.endObject().endObject();
+        }
+    }
+
+    private static JsonWriter writeProduct(JsonWriter json, Product product) throws IOException {
+        return json.name("id").value(product.getId())
+                .name("type").value((product instanceof Food) ? "food" : "drink")
+                .name("name").value(product.getName())
+                .name("price").value(product.getPrice())
+                .name("discount").value(product.getDiscount())
+                .name("rating").value(product.getRating().ordinal())
+                .name("stars").value(product.getStars())
+                .name("bestBefore").value(product.getBestBefore().toString());
+    }
+
+    /**
+     * Sends the headers of a streamed JSON response, the body follows in chunks as the writer is flushed.
+     */
+    private static JsonWriter json(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+        return new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)));
+    }
+
+    private static void error(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() != -1) {
+            // the response is already under way, closing the exchange cuts it short
+            log.log(Level.FINE, "Error after the response started: {0}", message);
+            return;
+        }
+        try {
+            StringWriter text = new StringWriter();
+            new JsonWriter(text).beginObject().name("error").value(message).endObject();
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException ex) {
+            log.log(Level.FINE, "Error sending error response", ex);
+        }
+    }
+
+    private static void allow(HttpExchange exchange, String... methods) throws HttpError {
+        for (String method : methods) {
+            if (method.equals(exchange.getRequestMethod())) {
+                return;
+            }
+        }
+        exchange.getResponseHeaders().set("Allow", String.join(", ", methods));
+        throw new HttpError(405, exchange.getRequestMethod() + " is not allowed here");
+    }
+
+    private static String body(HttpExchange exchange) throws IOException, HttpError {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY + 1);
+            if (body.length > MAX_BODY) {
+                throw new HttpError(413, "Request body is larger than " + MAX_BODY + " bytes");
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return the {@code lang} parameter, or the best match for {@code Accept-Language}, among the supported locales
+     */
+    private static String languageTag(HttpExchange exchange) {
+        Set<String> supported = ProductManager.getSupportedLocales();
+        String requested = parameters(exchange.getRequestURI()).get("lang");
+        if (requested == null) {
+            String accepted = exchange.getRequestHeaders().getFirst("Accept-Language");
+            if (accepted != null) {
+                try {
+                    List<String> matching = Locale.filterTags(Locale.LanguageRange.parse(accepted), supported);
+                    requested = matching.isEmpty() ? null : matching.get(0);
+                } catch (IllegalArgumentException ex) {
+                    log.log(Level.FINE, "Ignoring malformed Accept-Language {0}", accepted);
+                }
+            }
+        }
+        if (requested != null) {
+            for (String tag : supported) {
+                if (tag.equalsIgnoreCase(requested)) {
+                    return tag;
+                }
+            }
+        }
+        return DEFAULT_LANGUAGE;
+    }
+
+    private static Map<String, String> parameters(URI uri) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                String name = (equals < 0) ? parameter : parameter.substring(0, equals);
+                String value = (equals < 0) ? "" : parameter.substring(equals + 1);
+                parameters.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                        URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static int id(String text) throws HttpError {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException ex) {
+            throw new HttpError(404, "No product " + text);
+        }
+    }
+
+    private static int integer(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        return (value == null || value.isEmpty()) ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static int limit(Map<String, String> parameters) throws HttpError {
+        int limit = integer(parameters, "limit", DEFAULT_LIMIT);
+        if (limit > MAX_LIMIT) {
+            throw new HttpError(400, "limit must be at most " + MAX_LIMIT);
+        }
+        return limit;
+    }
+
+    /**
+     * @return the ratings in a comma separated list of star counts, empty if there is none
+     */
+    private static List<Rating> ratings(String stars) {
+        List<Rating> ratings = new ArrayList<>();
+        if (stars != null && !stars.isEmpty()) {
+            for (String star : stars.split(",")) {
+                int ordinal = Integer.parseInt(star.trim());
+                if (ordinal < 0 || ordinal >= Rating.values().length) {
+                    throw new IllegalArgumentException("rating must be between 0 and " + (Rating.values().length - 1));
+                }
+                ratings.add(Rating.values()[ordinal]);
+            }
+        }
+        return ratings;
+    }
+}
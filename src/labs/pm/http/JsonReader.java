@@ -0,0 +1,204 @@
+package labs.pm.http;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code JsonReader} parses a JSON document into plain collections, without reflection:
+ * objects become {@code Map<String, Object>} in document order, arrays {@code List<Object>}, numbers
+ * {@link BigDecimal}, and strings, booleans and {@code null} themselves.
+ * It is meant for request bodies and small responses, not for streaming large documents.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class JsonReader {
+    private static final int MAX_DEPTH = 64;
+    private final String text;
+    private int position;
+
+    private JsonReader(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text is not a single well formed JSON value
+     */
+    public static Object read(String text) {
+        JsonReader reader = new JsonReader(text);
+        Object value = reader.value(0);
+        reader.skipWhitespace();
+        if (reader.position < text.length()) {
+            throw reader.error("Unexpected text after the value");
+        }
+        return value;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text is not a JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> readObject(String text) {
+        Object value = read(text);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private Object value(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw error("Nested too deep");
+        }
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw error("Unexpected end of text");
+        }
+        char c = text.charAt(position);
+        switch (c) {
+            case '{': return object(depth);
+            case '[': return array(depth);
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return number();
+                }
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object(int depth) {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (consume('}')) {
+            return object;
+        }
+        do {
+            skipWhitespace();
+            if (position >= text.length() || text.charAt(position) != '"') {
+                throw error("Expected a member name");
+            }
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            object.put(name, value(depth + 1));
+            skipWhitespace();
+        } while (consume(','));
+        expect('}');
+        return object;
+    }
+
+    private List<Object> array(int depth) {
+        List<Object> array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (consume(']')) {
+            return array;
+        }
+        do {
+            array.add(value(depth + 1));
+            skipWhitespace();
+        } while (consume(','));
+        expect(']');
+        return array;
+    }
+
+    private String string() {
+        position++;
+        StringBuilder value = new StringBuilder();
+        int start = position;
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == '"') {
+                value.append(text, start, position++);
+                return value.toString();
+            }
+            if (c < 0x20) {
+                throw error("Control character in string");
+            }
+            if (c != '\\') {
+                position++;
+                continue;
+            }
+            value.append(text, start, position);
+            if (position + 1 >= text.length()) {
+                break;
+            }
+            char escaped = text.charAt(position + 1);
+            position += 2;
+            switch (escaped) {
+                case '"': case '\\': case '/': value.append(escaped); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw error("Truncated unicode escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw error("Bad unicode escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    throw error("Bad escape '\\" + escaped + "'");
+            }
+            start = position;
+        }
+        throw error("Unterminated string");
+    }
+
+    private BigDecimal number() {
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        try {
+            return new BigDecimal(text.substring(start, position));
+        } catch (NumberFormatException ex) {
+            throw error("Bad number");
+        }
+    }
+
+    private Object literal(String literal, Object value) {
+        if (!text.startsWith(literal, position)) {
+            throw error("Expected " + literal);
+        }
+        position += literal.length();
+        return value;
+    }
+
+    private boolean consume(char c) {
+        if (position < text.length() && text.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && " \t\r\n".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
@@ -0,0 +1,175 @@
+package labs.pm.http;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * {@code JsonWriter} encodes JSON straight to a {@link Writer} as values are written, without building a tree
+ * and without reflection, so a listing of any size is streamed in constant memory.
+ * <p>
+ * Commas are placed automatically: write {@link #name(String)} and a value for each member of an object,
+ * and just the values for an array. Not thread safe.
+ * @author zackwilcox
+ * @version 1.0
+ */
+public final class JsonWriter implements Flushable, Closeable {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private final Writer out;
+    /** per nesting level, whether the next member is the first one */
+    private boolean[] first = new boolean[8];
+    private int depth;
+    private boolean named;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        out.write(':');
+        named = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        separate();
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(BigDecimal value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        out.write(value.toPlainString());
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separate();
+        out.write("null");
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        out.write(bracket);
+        if (++depth == first.length) {
+            first = Arrays.copyOf(first, depth << 1);
+        }
+        first[depth] = true;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("Nothing to close with " + bracket);
+        }
+        depth--;
+        out.write(bracket);
+        return this;
+    }
+
+    /**
+     * Writes the comma before every member but the first, unless the value follows its name.
+     */
+    private void separate() throws IOException {
+        if (named) {
+            named = false;
+        } else if (depth > 0) {
+            if (first[depth]) {
+                first[depth] = false;
+            } else {
+                out.write(',');
+            }
+        }
+    }
+
+    /**
+     * Quotes the string, escaping quotes, backslashes, control characters and the line separators
+     * JavaScript does not allow in strings; everything else is written as is.
+     */
+    private void string(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            out.write(value, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    out.write("\\u");
+                    out.write(HEX[(c >> 12) & 0xF]);
+                    out.write(HEX[(c >> 8) & 0xF]);
+                    out.write(HEX[(c >> 4) & 0xF]);
+                    out.write(HEX[c & 0xF]);
+            }
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
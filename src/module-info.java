@@ -1,3 +1,7 @@
 module labs.pm {
     requires java.logging;
+    requires java.management;
+    requires java.net.http;
+    requires jdk.httpserver;
+    exports labs.pm.data;
 }
\ No newline at end of file